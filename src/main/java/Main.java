@@ -1,8 +1,43 @@
+import control.Server;
+import control.Session;
+import enums.Transport;
 import ui.ExperimentFrame;
+import ui.InputReplay;
+
+import java.nio.file.Path;
 
 public class Main {
 
+    /**
+     * Start the experiment (or replay a journaled session)
+     * @param args Optional: --transport TCP|UDS|TCP_UDS (how the devices connect)
+     *             --jitter ms (playout delay of the deltas; 0 = off)
+     *             --results dir|none (where the trial results are saved)
+     *             --replay session [--speed x|max] [--journal dir] (replay instead of running)
+     */
     public static void main(String[] args) {
-        new ExperimentFrame().begin();
+        String replaySession = null;
+        double speed = 1;
+        Path journalDir = Server.JOURNAL_DIR;
+
+        for (int i = 0; i < args.length - 1; i++) {
+            switch (args[i]) {
+                case "--transport" -> Server.get().setTransport(Transport.valueOf(args[i + 1].toUpperCase()));
+                case "--jitter" -> Server.get().setJitterDelay(Integer.parseInt(args[i + 1]));
+                case "--results" -> Session.getDefault().setResultsDir(
+                        args[i + 1].equals("none") ? null : Path.of(args[i + 1]));
+                case "--replay" -> replaySession = args[i + 1];
+                case "--speed" -> speed = args[i + 1].equals("max")
+                        ? InputReplay.AS_FAST_AS_POSSIBLE
+                        : Double.parseDouble(args[i + 1]);
+                case "--journal" -> journalDir = Path.of(args[i + 1]);
+            }
+        }
+
+        if (replaySession != null) new ExperimentFrame().beginReplay(journalDir, replaySession, speed);
+        else {
+            Server.get().setJournalDir(journalDir);
+            new ExperimentFrame().begin();
+        }
     }
 }
@@ -0,0 +1,122 @@
+package control;
+
+import tool.LatencyHistogram;
+
+import java.util.Arrays;
+
+/**
+ * Round-trip time and clock offset of one device (NTP-style)
+ * The server sends PING (seq) at t0, the device answers with its clock (td), received at t3:
+ * RTT = t3 - t0, offset = td - (t0 + t3) / 2. The offset of the lowest-RTT recent sample is used.
+ * Device times are in microseconds (any epoch), host times are System.nanoTime().
+ */
+public class ClockSync {
+    public static final long DEVICE_TIME_UNIT_NS = 1000; // Device clock: microseconds
+
+    private static final int N_PENDING = 16; // Pings waiting for an answer
+    private static final int N_SAMPLES = 8; // Recent samples for choosing the offset
+    private static final int NO_PING = -1; // Slot without a pending ping (never a valid seq)
+
+    private final long[] pendingSendTimes = new long[N_PENDING];
+    private final int[] pendingSeqs = new int[N_PENDING];
+    private int nextSeq = 1;
+
+    private final long[] sampleRtts = new long[N_SAMPLES];
+    private final long[] sampleOffsets = new long[N_SAMPLES];
+    private int nSamples;
+
+    private final LatencyHistogram rttHistogram = new LatencyHistogram();
+    private volatile long offset; // Device - host (ns)
+    private volatile boolean synced;
+
+    /**
+     * Constructor
+     */
+    public ClockSync() {
+        Arrays.fill(pendingSeqs, NO_PING);
+    }
+
+    /**
+     * Register a ping that is being sent
+     * @param sendTime System.nanoTime() of sending
+     * @return Seq. number to put in the ping
+     */
+    synchronized int newPing(long sendTime) {
+        final int seq = nextSeq;
+        nextSeq = (seq == Integer.MAX_VALUE) ? 1 : seq + 1; // Seqs are always > 0
+        final int slot = Math.floorMod(seq, N_PENDING);
+        pendingSeqs[slot] = seq;
+        pendingSendTimes[slot] = sendTime;
+        return seq;
+    }
+
+    /**
+     * Register the answer of the device
+     * @param seq Seq. number of the ping
+     * @param deviceTime Device clock when answering (DEVICE_TIME_UNIT_NS)
+     * @param receiveTime System.nanoTime() of receiving
+     * @return True if it matched a pending ping
+     */
+    synchronized boolean onPong(int seq, long deviceTime, long receiveTime) {
+        if (seq <= 0) return false; // Never issued (also a non-numeric seq)
+        final int slot = Math.floorMod(seq, N_PENDING);
+        if (pendingSeqs[slot] != seq) return false; // Unknown, too old or already answered
+        pendingSeqs[slot] = NO_PING;
+
+        final long sendTime = pendingSendTimes[slot];
+        final long rtt = receiveTime - sendTime;
+        rttHistogram.record(rtt);
+
+        // Keep the sample
+        final int i = nSamples % N_SAMPLES;
+        sampleRtts[i] = rtt;
+        sampleOffsets[i] = deviceTime * DEVICE_TIME_UNIT_NS - (sendTime + rtt / 2);
+        nSamples++;
+
+        // Lowest RTT = least queuing = best offset
+        int best = 0;
+        final int n = Math.min(nSamples, N_SAMPLES);
+        for (int k = 1; k < n; k++) {
+            if (sampleRtts[k] < sampleRtts[best]) best = k;
+        }
+        offset = sampleOffsets[best];
+        synced = true;
+
+        return true;
+    }
+
+    /**
+     * Map a device time onto the host timeline
+     * @param deviceTime Device time (DEVICE_TIME_UNIT_NS)
+     * @return Host time (System.nanoTime() base); Long.MIN_VALUE if not synced yet
+     */
+    public long toHostNanos(long deviceTime) {
+        if (!synced) return Long.MIN_VALUE;
+        return deviceTime * DEVICE_TIME_UNIT_NS - offset;
+    }
+
+    public boolean isSynced() {
+        return synced;
+    }
+
+    /**
+     * Get the estimated offset
+     * @return Device clock - host clock (ns)
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    public LatencyHistogram getRttHistogram() {
+        return rttHistogram;
+    }
+
+    @Override
+    public String toString() {
+        return "ClockSync{" +
+                "synced=" + synced +
+                ", offset=" + offset +
+                ", rtt=[" + rttHistogram + "]" +
+                '}';
+    }
+}
@@ -0,0 +1,68 @@
+package control;
+
+import enums.MergePolicy;
+import tool.Constants.*;
+
+/**
+ * What a device announced in the handshake and what the Server picked for it
+ * Devices that don't send HELLO (older firmware) keep LEGACY: version 1, text only, deltas merged.
+ * @param version Protocol version in use (the lower of the two sides)
+ * @param encodings Encodings of the device (STRINGS.TEXT/BINARY, joined with STRINGS.MSP)
+ * @param maxSampleRate Max. events per second of the device (0 = not known)
+ * @param clockResolution Resolution of the device timestamps (µs; 0 = not known)
+ * @param encoding Encoding picked for the device
+ * @param mergePolicy Merge policy picked for the device
+ */
+public record DeviceCaps(int version, String encodings, int maxSampleRate, int clockResolution,
+                         String encoding, MergePolicy mergePolicy) {
+    public static final int LEGACY_VERSION = 1; // Comma-separated text only
+    public static final int PROTOCOL_VERSION = 2; // + binary frames, timestamps and the handshake
+    public static final DeviceCaps LEGACY = new DeviceCaps(LEGACY_VERSION, STRINGS.TEXT, 0, 0,
+            STRINGS.TEXT, MergePolicy.MERGE);
+
+    private static final int MERGE_RATE = 60; // Hz (display refresh); faster devices are merged
+    private static final int MAX_JITTER_CLOCK_RESOLUTION = 1000; // µs; coarser timestamps can't pace the deltas
+
+    /**
+     * Take a HELLO: the version is agreed on and the encoding picked
+     * @param deviceVersion Protocol version of the device
+     * @param deviceEncodings Encodings of the device (joined with STRINGS.MSP)
+     * @return New DeviceCaps
+     */
+    DeviceCaps withHello(int deviceVersion, String deviceEncodings) {
+        final int agreed = Math.max(LEGACY_VERSION, Math.min(deviceVersion, PROTOCOL_VERSION));
+        final boolean binary = agreed >= PROTOCOL_VERSION && supports(deviceEncodings, STRINGS.BINARY);
+        return new DeviceCaps(agreed, deviceEncodings, maxSampleRate, clockResolution,
+                binary ? STRINGS.BINARY : STRINGS.TEXT, mergePolicy);
+    }
+
+    /**
+     * Take a CAPS: the merge policy is picked from the sample rate
+     * @param deviceRate Max. events per second of the device
+     * @param deviceResolution Resolution of the device timestamps (µs)
+     * @return New DeviceCaps
+     */
+    public DeviceCaps withCaps(int deviceRate, int deviceResolution) {
+        final MergePolicy policy = (deviceRate > 0 && deviceRate <= MERGE_RATE) ? MergePolicy.EACH : MergePolicy.MERGE;
+        return new DeviceCaps(version, encodings, deviceRate, deviceResolution, encoding, policy);
+    }
+
+    public boolean isBinary() {
+        return encoding.equals(STRINGS.BINARY);
+    }
+
+    /**
+     * Can the timestamps of the device pace its deltas (jitter buffer)?
+     * @return True if fine enough (or not announced)
+     */
+    public boolean hasPacingClock() {
+        return clockResolution <= MAX_JITTER_CLOCK_RESOLUTION;
+    }
+
+    private static boolean supports(String encodings, String encoding) {
+        for (String e : encodings.split(STRINGS.MSP)) {
+            if (e.trim().equalsIgnoreCase(encoding)) return true;
+        }
+        return false;
+    }
+}
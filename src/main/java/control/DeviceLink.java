@@ -0,0 +1,95 @@
+package control;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * One device (Moose or a stand-in) and its per-connection state
+ * Reading state is only touched by the I/O thread, writing state only by the writer thread.
+ * A lost link is kept for a while, so a reconnecting device resumes with the same id and buffers.
+ */
+class DeviceLink {
+    //-- Connection states
+    enum State {
+        CONNECTED, // Reading/writing
+        LOST // Closed, waiting for the device to reconnect
+    }
+
+    final int id;
+    volatile SocketChannel channel;
+    volatile InetSocketAddress remote; // null for Unix-domain connections
+    volatile InetAddress remoteAddress; // Host of remote (null for Unix-domain connections)
+    volatile String token; // Identity sent in HELLO (null = legacy device; resumed by address + port)
+    InetSocketAddress datagramRemote; // UDP endpoint bound to the device (null = none yet) (I/O thread)
+    volatile State state = State.CONNECTED;
+    volatile long lastReceiveTime; // System.nanoTime() of the last bytes received (I/O thread)
+    long lostTime; // System.nanoTime() of losing the connection
+
+    FrameDecoder decoder; // I/O thread
+    final SequenceTracker datagramTracker = new SequenceTracker(); // I/O thread
+    final JitterBuffer jitterBuffer = new JitterBuffer(); // I/O thread (kept while lost: drains on time)
+    final ClockSync clockSync = new ClockSync();
+    final ByteBuffer outBuffer; // Writer thread
+    SocketChannel failedChannel; // Channel the writer gave up on (not written to again) (writer thread)
+    volatile boolean binaryOut; // Negotiated by the device (ENCODING message or handshake)
+    volatile DeviceCaps caps = DeviceCaps.LEGACY; // Until the device sends HELLO (I/O thread)
+    EncodedMemo keepAliveEcho; // Last KEEP_ALIVE echoed (reused while the device sends the same) (I/O thread)
+
+    /**
+     * Constructor
+     * @param id Device id (stamped on its Memos)
+     * @param channel SocketChannel (connected)
+     * @param maxLineLength Max. length of a text line
+     * @param writeBufferSize Size of the outgoing buffer
+     */
+    DeviceLink(int id, SocketChannel channel, int maxLineLength, int writeBufferSize) {
+        this.id = id;
+        this.channel = channel;
+        this.remote = findRemote(channel);
+        this.remoteAddress = (remote != null) ? remote.getAddress() : null;
+
+        decoder = new FrameDecoder(maxLineLength);
+        outBuffer = ByteBuffer.allocateDirect(writeBufferSize);
+        outBuffer.flip(); // Nothing to write yet
+        lastReceiveTime = System.nanoTime();
+    }
+
+    /**
+     * Take a new connection of the same device (after it was lost)
+     * @param newChannel SocketChannel (connected)
+     */
+    void resume(SocketChannel newChannel) {
+        channel = newChannel;
+        remote = findRemote(newChannel);
+        remoteAddress = (remote != null) ? remote.getAddress() : null;
+        decoder.reset(); // Partial line/frame of the old connection
+        datagramTracker.reset(); // The device may restart its seq. numbers (counters are kept)
+        lastReceiveTime = System.nanoTime();
+        state = State.CONNECTED;
+    }
+
+    /**
+     * Take over the connection of a link made for the same device (it identified itself in HELLO)
+     * The decoder comes along, so a line/frame that is partly read isn't lost.
+     * @param fresh DeviceLink of the new connection (not used after)
+     */
+    void resume(DeviceLink fresh) {
+        resume(fresh.channel);
+        decoder = fresh.decoder;
+    }
+
+    private static InetSocketAddress findRemote(SocketChannel channel) {
+        try {
+            return (channel.getRemoteAddress() instanceof InetSocketAddress address) ? address : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Device " + id + " (" + ((remoteAddress != null) ? remoteAddress : "local") + ")";
+    }
+}
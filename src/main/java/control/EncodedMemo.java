@@ -0,0 +1,69 @@
+package control;
+
+import moose.Memo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A fixed outgoing message with its text and binary encodings made once (e.g., END, CONFIG, KEEP_ALIVE echo)
+ * Sending it only copies the bytes into the write buffer. The Memo must not be changed afterwards.
+ */
+public final class EncodedMemo {
+    private final Memo memo;
+    private final ByteBuffer text; // Read-only; only read with absolute gets (shared by the writes)
+    private final ByteBuffer frame; // null if the Memo can't be framed
+
+    private EncodedMemo(Memo memo) {
+        this.memo = memo;
+
+        final ByteBuffer textBytes = ByteBuffer.allocateDirect(memo.getTextLength());
+        memo.writeText(textBytes);
+        text = textBytes.flip().asReadOnlyBuffer();
+
+        if (memo.isFramable()) {
+            final ByteBuffer frameBytes = ByteBuffer.allocateDirect(Memo.FRAME_SIZE);
+            memo.writeFrame(frameBytes);
+            frame = frameBytes.flip().asReadOnlyBuffer();
+        } else {
+            frame = null;
+        }
+    }
+
+    /**
+     * Encode a Memo for sending it any number of times
+     * @param memo Memo (not changed afterwards)
+     * @return EncodedMemo
+     */
+    public static EncodedMemo of(Memo memo) {
+        return new EncodedMemo(memo);
+    }
+
+    public Memo getMemo() {
+        return memo;
+    }
+
+    /**
+     * Size of the encoding
+     * @param binary Binary frame (if the Memo can be framed) or text
+     * @return Size in bytes
+     */
+    int size(boolean binary) {
+        return (binary && frame != null) ? frame.limit() : text.limit();
+    }
+
+    /**
+     * Copy the encoding into a buffer
+     * @param binary Binary frame (if the Memo can be framed) or text
+     * @param buffer ByteBuffer with at least size() bytes remaining
+     */
+    void writeTo(boolean binary, ByteBuffer buffer) {
+        final ByteBuffer bytes = (binary && frame != null) ? frame : text;
+        buffer.put(buffer.position(), bytes, 0, bytes.limit());
+        buffer.position(buffer.position() + bytes.limit());
+    }
+
+    @Override
+    public String toString() {
+        return memo.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package control;
+
+import moose.Memo;
+import org.tinylog.Logger;
+import org.tinylog.TaggedLogger;
+import tool.AsciiSequence;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental framer for the Moose stream.
+ * Bytes are fed as they arrive (in any chunking) and complete lines or binary frames are handed to the listener.
+ * A binary frame starts with Memo.FRAME_MARKER (only at a line start), so both formats can share the stream.
+ * The line and frame storages are allocated once and reused for the life of the connection.
+ */
+class FrameDecoder {
+    private final TaggedLogger conLog = Logger.tag(getClass().getSimpleName());
+
+    private static final byte LF = '\n';
+    private static final byte CR = '\r';
+
+    //-- Listener for the decoded lines and frames
+    interface Listener {
+        void onLine(CharSequence line); // Only valid during the call
+
+        void onFrame(ByteBuffer frame);
+    }
+
+    private final byte[] lineBytes;
+    private final AsciiSequence lineView = new AsciiSequence(); // Lines are passed without copying
+    private int lineLen;
+    private boolean overflow;
+
+    private final ByteBuffer frameBuffer = ByteBuffer.allocate(Memo.FRAME_SIZE - 1); // Without the marker
+    private boolean inFrame;
+
+    /**
+     * Constructor
+     * @param maxLineLength Max. length of one line (longer lines are dropped)
+     */
+    FrameDecoder(int maxLineLength) {
+        lineBytes = new byte[maxLineLength];
+    }
+
+    /**
+     * Consume all the remaining bytes of the buffer
+     * @param buffer ByteBuffer (flipped, ready to read)
+     * @param listener Listener to receive the complete lines/frames
+     */
+    void decode(ByteBuffer buffer, Listener listener) {
+        while (buffer.hasRemaining()) {
+            // Inside a binary frame -> copy as much as possible
+            if (inFrame) {
+                final int n = Math.min(frameBuffer.remaining(), buffer.remaining());
+                frameBuffer.put(frameBuffer.position(), buffer, buffer.position(), n);
+                frameBuffer.position(frameBuffer.position() + n);
+                buffer.position(buffer.position() + n);
+
+                if (!frameBuffer.hasRemaining()) {
+                    frameBuffer.flip();
+                    listener.onFrame(frameBuffer);
+                    frameBuffer.clear();
+                    inFrame = false;
+                }
+                continue;
+            }
+
+            final byte b = buffer.get();
+            if (b == Memo.FRAME_MARKER && lineLen == 0 && !overflow) {
+                inFrame = true;
+                continue;
+            }
+
+            switch (b) {
+                case LF -> {
+                    if (overflow) {
+                        conLog.warn("Line longer than {} bytes dropped", lineBytes.length);
+                    } else if (lineLen > 0) {
+                        listener.onLine(lineView.wrap(lineBytes, 0, lineLen));
+                    }
+                    lineLen = 0;
+                    overflow = false;
+                }
+                case CR -> {
+                    // Ignore (line ends with CRLF)
+                }
+                default -> {
+                    if (lineLen < lineBytes.length) lineBytes[lineLen++] = b;
+                    else overflow = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Discard any partial line or frame (on disconnect)
+     */
+    void reset() {
+        lineLen = 0;
+        overflow = false;
+        frameBuffer.clear();
+        inFrame = false;
+    }
+}
@@ -0,0 +1,326 @@
+package control;
+
+import org.tinylog.Logger;
+import org.tinylog.TaggedLogger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Append-only journal of the raw input (one per session), in memory-mapped segment files
+ * Segment: MAGIC, VERSION, wall-clock ms and nanoTime at creation, then records until a zero length.
+ * Record: payload length (int), kind (byte), device id (int), arrival nanoTime (long), payload.
+ * Appending only copies bytes into the mapping; the OS writes them out (forced at trial boundaries, on the
+ * journal's own thread, so the EDT marking a trial never waits for the disk).
+ */
+public class InputJournal implements Closeable {
+    private final TaggedLogger conLog = Logger.tag(getClass().getSimpleName());
+
+    public static final int MAGIC = 0x4D4A524E; // "MJRN"
+    public static final int VERSION = 1;
+    public static final int SEGMENT_HEADER_SIZE = 4 + 4 + 8 + 8;
+    public static final int RECORD_HEADER_SIZE = 4 + 1 + 4 + 8;
+    public static final String EXTENSION = ".journal";
+
+    //-- Record kinds
+    public static final byte TEXT = 1; // Text line (TCP/UDS)
+    public static final byte FRAME = 2; // Binary frame without the marker (TCP/UDS)
+    public static final byte DATAGRAM = 3; // UDP payload after the seq. number (frame with marker or text)
+    public static final byte TRIAL = 4; // Trial boundary (payload: trial number)
+    public static final byte TASK = 5; // Start of a task (payload: task id, random seed, jitter delay in ms)
+    public static final byte MOUSE = 6; // Mouse event on a viewport (payload: see ui.MouseRecorder)
+
+    private static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024; // bytes
+
+    private final Path dir;
+    private final String session;
+    private final int segmentSize;
+
+    private FileChannel segmentChannel;
+    private volatile MappedByteBuffer segment;
+    private int segmentNum;
+
+    // Forcing the mapping to the disk (one pending request at a time)
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "JournalFlush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean forcePending = new AtomicBoolean();
+
+    private long nRecords;
+    private long nDropped; // Larger than a segment
+    private boolean closed;
+
+    /**
+     * Open a new journal
+     * @param dir Directory (created if needed)
+     * @param session Session name (prefix of the segment files)
+     * @throws IOException If the first segment can't be created
+     */
+    public InputJournal(Path dir, String session) throws IOException {
+        this(dir, session, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open a new journal
+     * @param dir Directory (created if needed)
+     * @param session Session name (prefix of the segment files)
+     * @param segmentSize Size of each segment file (bytes)
+     * @throws IOException If the first segment can't be created
+     */
+    public InputJournal(Path dir, String session, int segmentSize) throws IOException {
+        this.dir = dir;
+        this.session = session;
+        this.segmentSize = segmentSize;
+
+        Files.createDirectories(dir);
+        openSegment();
+        conLog.info("Journal: {}", segmentPath(dir, session, 0));
+    }
+
+    /**
+     * Append a text record (ASCII)
+     * @param kind Record kind
+     * @param deviceId Device id
+     * @param arrivalTime System.nanoTime() of arrival
+     * @param text CharSequence
+     */
+    public synchronized void append(byte kind, int deviceId, long arrivalTime, CharSequence text) {
+        final int len = text.length();
+        if (!reserve(len)) return;
+
+        putHeader(len, kind, deviceId, arrivalTime);
+        for (int i = 0; i < len; i++) segment.put((byte) text.charAt(i));
+    }
+
+    /**
+     * Append a binary record (the position of the bytes is not changed)
+     * @param kind Record kind
+     * @param deviceId Device id
+     * @param arrivalTime System.nanoTime() of arrival
+     * @param bytes ByteBuffer (the remaining bytes)
+     */
+    public synchronized void append(byte kind, int deviceId, long arrivalTime, ByteBuffer bytes) {
+        final int len = bytes.remaining();
+        if (!reserve(len)) return;
+
+        putHeader(len, kind, deviceId, arrivalTime);
+        segment.put(segment.position(), bytes, bytes.position(), len);
+        segment.position(segment.position() + len);
+    }
+
+    /**
+     * Mark the end of a trial and have everything so far written to the disk (returns at once)
+     * @param trialNum Trial number
+     */
+    public void markTrial(int trialNum) {
+        synchronized (this) {
+            if (!reserve(Integer.BYTES)) return;
+            putHeader(Integer.BYTES, TRIAL, 0, System.nanoTime());
+            segment.putInt(trialNum);
+        }
+        forceLater();
+    }
+
+    /**
+     * Mark the start of a task (replay starts from here, with the same seed and jitter delay)
+     * @param taskId Task id
+     * @param seed Seed of the session's random numbers
+     * @param jitterDelay Playout delay of the deltas (ms; 0 = off)
+     */
+    public void markTask(int taskId, long seed, int jitterDelay) {
+        synchronized (this) {
+            if (!reserve(Integer.BYTES + Long.BYTES + Integer.BYTES)) return;
+            putHeader(Integer.BYTES + Long.BYTES + Integer.BYTES, TASK, 0, System.nanoTime());
+            segment.putInt(taskId);
+            segment.putLong(seed);
+            segment.putInt(jitterDelay);
+        }
+        forceLater();
+    }
+
+    /**
+     * Write the journal to the disk (outside the lock: the I/O thread can keep appending)
+     */
+    public void force() {
+        final MappedByteBuffer current = segment;
+        if (current != null) current.force();
+    }
+
+    /**
+     * Force on the journal's thread (requests made while one is pending are covered by it)
+     */
+    private void forceLater() {
+        if (!forcePending.compareAndSet(false, true)) return;
+        try {
+            flusher.execute(() -> {
+                forcePending.set(false);
+                force();
+            });
+        } catch (RejectedExecutionException e) { // Closed
+            forcePending.set(false);
+        }
+    }
+
+    public synchronized long getRecordCount() {
+        return nRecords;
+    }
+
+    public synchronized long getDroppedCount() {
+        return nDropped;
+    }
+
+    /**
+     * Force and close (appending after closing does nothing)
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+
+        flusher.shutdown();
+        force();
+        try {
+            segmentChannel.close();
+        } catch (IOException e) {
+            conLog.warn("Error in closing the journal: {}", e.getMessage());
+        }
+        conLog.info("Journal closed: {} records in {} segments ({} dropped)", nRecords, segmentNum + 1, nDropped);
+    }
+
+    //-- Writing
+
+    /**
+     * Make room for a record (a new segment is started if needed)
+     * @param len Payload length
+     * @return False if the record can't be written
+     */
+    private boolean reserve(int len) {
+        if (closed || len <= 0) return false; // Zero length = end mark
+
+        final int size = RECORD_HEADER_SIZE + len;
+        if (SEGMENT_HEADER_SIZE + size + Integer.BYTES > segmentSize) {
+            nDropped++;
+            return false;
+        }
+
+        if (segment.remaining() < size + Integer.BYTES) { // Keep room for the end mark
+            try {
+                segment.force();
+                segmentChannel.close();
+                segmentNum++;
+                openSegment();
+            } catch (IOException e) {
+                conLog.warn("Journal stopped: {}", e.getMessage());
+                closed = true;
+                return false;
+            }
+        }
+
+        nRecords++;
+        return true;
+    }
+
+    private void putHeader(int len, byte kind, int deviceId, long arrivalTime) {
+        segment.putInt(len);
+        segment.put(kind);
+        segment.putInt(deviceId);
+        segment.putLong(arrivalTime);
+    }
+
+    private void openSegment() throws IOException {
+        final Path path = segmentPath(dir, session, segmentNum);
+        segmentChannel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final MappedByteBuffer mapped = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+
+        mapped.putInt(MAGIC);
+        mapped.putInt(VERSION);
+        mapped.putLong(System.currentTimeMillis());
+        mapped.putLong(System.nanoTime());
+        segment = mapped; // The rest is zeros (= end mark)
+    }
+
+    private static Path segmentPath(Path dir, String session, int num) {
+        return dir.resolve(String.format("%s_%03d%s", session, num, EXTENSION));
+    }
+
+    //-- Reading
+
+    //-- Receiver of the records of a journal
+    public interface RecordVisitor {
+        /**
+         * One record
+         * @param kind Record kind
+         * @param deviceId Device id
+         * @param arrivalTime System.nanoTime() of arrival (in the recording session)
+         * @param payload ByteBuffer (only valid during the call)
+         */
+        void onRecord(byte kind, int deviceId, long arrivalTime, ByteBuffer payload);
+    }
+
+    /**
+     * Get the segment files of a session, in order
+     * @param dir Directory
+     * @param session Session name
+     * @return List of paths
+     * @throws IOException If the directory can't be read
+     */
+    public static List<Path> findSegments(Path dir, String session) throws IOException {
+        final List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, session + "_[0-9]*" + EXTENSION)) {
+            for (Path file : files) result.add(file);
+        }
+        result.sort(null); // Zero-padded numbers
+        return result;
+    }
+
+    /**
+     * Read all the records of a session
+     * @param dir Directory
+     * @param session Session name
+     * @param visitor RecordVisitor
+     * @return Number of records
+     * @throws IOException If a segment can't be read or is not a journal
+     */
+    public static long read(Path dir, String session, RecordVisitor visitor) throws IOException {
+        long n = 0;
+        for (Path file : findSegments(dir, session)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() < SEGMENT_HEADER_SIZE || buffer.getInt() != MAGIC) {
+                    throw new IOException("Not a journal: " + file);
+                }
+                buffer.position(SEGMENT_HEADER_SIZE);
+
+                while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                    final int len = buffer.getInt();
+                    if (len <= 0 || len > buffer.remaining() - (RECORD_HEADER_SIZE - Integer.BYTES)) break; // End
+                    final byte kind = buffer.get();
+                    final int deviceId = buffer.getInt();
+                    final long arrivalTime = buffer.getLong();
+
+                    final ByteBuffer payload = buffer.slice(buffer.position(), len);
+                    visitor.onRecord(kind, deviceId, arrivalTime, payload);
+                    buffer.position(buffer.position() + len);
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+}
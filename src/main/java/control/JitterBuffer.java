@@ -0,0 +1,128 @@
+package control;
+
+import moose.Memo;
+import tool.LatencyHistogram;
+
+/**
+ * Playout buffer for the deltas of one device: releases them at the cadence of their device timestamps
+ * Release = device time + the smallest recent transit time + delay, so a Memo is held at most the delay.
+ * Only used by one thread (the Server's I/O thread, or the replay); the histograms can be read by others (approximate).
+ */
+public class JitterBuffer {
+    private static final int CAPACITY = 1024; // Memos (full -> released at once)
+    private static final long WINDOW_NS = 10_000_000_000L; // Min. transit is renewed over this (clock drift)
+
+    private final Memo[] memos = new Memo[CAPACITY];
+    private final long[] releaseTimes = new long[CAPACITY];
+    private final long[] arrivalTimes = new long[CAPACITY];
+    private int head;
+    private int size;
+
+    private long minTransit = Long.MAX_VALUE; // Arrival - device time (ns)
+    private long windowMin = Long.MAX_VALUE;
+    private long windowStart;
+
+    private long lastArrival;
+    private long lastRelease;
+    private final LatencyHistogram rawIntervals = new LatencyHistogram(); // Between arrivals
+    private final LatencyHistogram smoothedIntervals = new LatencyHistogram(); // Between releases
+    private final LatencyHistogram addedLatency = new LatencyHistogram(); // Release - arrival
+
+    /**
+     * Hold a delta until its release time
+     * @param memo Memo (with a device timestamp)
+     * @param arrivalTime System.nanoTime() of arrival
+     * @param delay Playout delay (ns), the most a Memo is held
+     * @return False if not held (no timestamp or full) -> deliver it now
+     */
+    public boolean offer(Memo memo, long arrivalTime, long delay) {
+        if (memo.getTimestamp() == 0 || size == CAPACITY) return false;
+
+        if (lastArrival != 0) rawIntervals.record(arrivalTime - lastArrival);
+        lastArrival = arrivalTime;
+
+        // Smallest transit of this and the last window (the clocks drift apart slowly)
+        final long deviceTime = memo.getTimestamp() * ClockSync.DEVICE_TIME_UNIT_NS;
+        final long transit = arrivalTime - deviceTime;
+        if (arrivalTime - windowStart > WINDOW_NS) {
+            minTransit = windowMin;
+            windowMin = Long.MAX_VALUE;
+            windowStart = arrivalTime;
+        }
+        windowMin = Math.min(windowMin, transit);
+        minTransit = Math.min(minTransit, transit);
+
+        final long release = deviceTime + minTransit + delay; // Between arrival and arrival + delay
+        final int tail = (head + size) % CAPACITY;
+        memos[tail] = memo;
+        arrivalTimes[tail] = arrivalTime;
+        releaseTimes[tail] = Math.max(release, (size > 0) ? releaseTimes[(tail + CAPACITY - 1) % CAPACITY] : release);
+        size++;
+        return true;
+    }
+
+    /**
+     * Take the next Memo if it is due
+     * @param now System.nanoTime()
+     * @return Memo or null
+     */
+    public Memo poll(long now) {
+        if (size == 0 || releaseTimes[head] - now > 0) return null;
+
+        final Memo memo = memos[head];
+        final long arrivalTime = arrivalTimes[head];
+        memos[head] = null;
+        head = (head + 1) % CAPACITY;
+        size--;
+
+        if (lastRelease != 0) smoothedIntervals.record(now - lastRelease);
+        lastRelease = now;
+        addedLatency.record(now - arrivalTime);
+        return memo;
+    }
+
+    /**
+     * Time of the next release
+     * @return System.nanoTime() base (Long.MAX_VALUE if empty)
+     */
+    public long nextRelease() {
+        return (size > 0) ? releaseTimes[head] : Long.MAX_VALUE;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Intervals between the arrivals of the deltas (as received)
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getRawIntervals() {
+        return rawIntervals;
+    }
+
+    /**
+     * Intervals between the releases of the deltas (as delivered)
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getSmoothedIntervals() {
+        return smoothedIntervals;
+    }
+
+    /**
+     * Time the deltas were held (at most the delay, plus the I/O loop's wake-up)
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getAddedLatency() {
+        return addedLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "JitterBuffer{" +
+                "raw=[" + rawIntervals + "]" +
+                ", smoothed=[" + smoothedIntervals + "]" +
+                ", added=[" + addedLatency + "]" +
+                '}';
+    }
+}
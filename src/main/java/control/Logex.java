@@ -1,39 +1,58 @@
 package control;
 
-import enums.ErrorEvent;
+import enums.EventCodes;
 import enums.TrialEvent;
 import model.BaseTrial;
 import org.tinylog.Logger;
 import org.tinylog.TaggedLogger;
 
-import java.time.Duration;
+import javax.swing.*;
 import java.time.Instant;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Log of the events of the active trial
+ * Used on the EDT only (Moose listeners, Swing input and timers, and the replay all run there), so nothing is locked.
+ * Logging asserts it (run with -ea).
+ */
 public class Logex {
     private final TaggedLogger conLog = Logger.tag(getClass().getSimpleName());
-    private static Logex self;
+
+    public static final long NOT_LOGGED = Long.MIN_VALUE; // Time of an event that wasn't logged
+
+    private static final String FIRST_PREFIX = TrialEvent.getFirst("");
+    private static final String LAST_PREFIX = TrialEvent.getLast("");
 
     private BaseTrial activeTrial;
 
-    private final Map<String, TrialEvent> trialLogs = new HashMap<>(); // Keys: TrialEvent strings
-    private final Map<String, ErrorEvent> errorLogs = new HashMap<>(); // Keys: ErrorEvent strings
+    // Events are timed with System.nanoTime() (monotonic); the anchor maps it to the wall clock
+    private final long anchorNanos = System.nanoTime();
+    private final long anchorMillis = System.currentTimeMillis();
+
+    private final TrialTimeline timeline = new TrialTimeline(); // Every event of the trial (first/last by index)
+    private int nErrors;
+
+    // Event names (e.g., "first_zoom") -> code of the key << 1 | 1 if first (resolved once)
+    private static final Map<String, Integer> nameRefs = new ConcurrentHashMap<>();
 
     /**
-     * Constructor
+     * Constructor (other than the default instance: one per Session)
      */
-    private Logex() {
+    public Logex() {
 
     }
 
     /**
-     * Get singleton
+     * Get the instance of the default Session
      * @return Logex instance
      */
     public static Logex get() {
-        if (self == null) self = new Logex();
-        return self;
+        return Holder.INSTANCE;
+    }
+
+    private static class Holder {
+        private static final Logex INSTANCE = new Logex();
     }
 
     /**
@@ -41,14 +60,15 @@ public class Logex {
      * @param trial BaseTrial
      */
     public void activateTrial(BaseTrial trial) {
+        assert SwingUtilities.isEventDispatchThread() : "Logex used off the EDT";
         activeTrial = trial;
 
-        // Clear the log maps
-        trialLogs.clear();
-        errorLogs.clear();
+        // Clear the logs
+        timeline.clear();
+        nErrors = 0;
 
         // Add the trial open log
-        logEvent(TrialEvent.TRIAL_OPEN);
+        logEvent(TrialEvent.Code.TRIAL_OPEN);
     }
 
     /**
@@ -56,48 +76,45 @@ public class Logex {
      * @param event TrialEvent
      */
     public void logEvent(TrialEvent event) {
-        // Add the event to the list
-        trialLogs.put(event.getKey(), event);
-
-        // TODO process the specific times
+        logEvent(EventCodes.codeOf(event.getKey()));
     }
 
     /**
-     * Log an event using only the key (manage the first/last yourself!)
+     * Log an event using only the key
      * @param key Key from TrialEvent
      */
     public void logEvent(String key) {
+        if (key != null) logEvent(EventCodes.codeOf(key), 0);
+    }
 
-        switch (key) {
-            case null -> {
-                // Do nothing
-            }
-
-            // No first, last
-            case TrialEvent.TRIAL_OPEN, TrialEvent.TRIAL_CLOSE, TrialEvent.SPACE_PRESS -> {
-                trialLogs.put(key, new TrialEvent(key));
-                conLog.debug("Logged {}", key);
-            }
-
-
-            // Log first, last
-            default -> {
-                String eventFirstName = TrialEvent.getFirst(key);
-                String eventLastName = TrialEvent.getLast(key);
-
-                // If first is empty, add first
-                if (!trialLogs.containsKey(eventFirstName)) {
-                    trialLogs.put(eventFirstName, new TrialEvent(eventFirstName));
-                    conLog.debug("Logged {}, {}", eventFirstName, getTrialInstant(eventFirstName));
-                }
-
-                // Add last
-                trialLogs.put(eventLastName, new TrialEvent(eventLastName));
-                conLog.trace("Logged {}", eventLastName);
-            }
-        }
+    /**
+     * Log an event with a value (kept in the timeline)
+     * @param key Key from TrialEvent
+     * @param value Value (e.g., zoom amount)
+     */
+    public void logEvent(String key, float value) {
+        if (key != null) logEvent(EventCodes.codeOf(key), value);
+    }
 
+    /**
+     * Log an event
+     * @param code Code of the key (TrialEvent.Code)
+     */
+    public void logEvent(int code) {
+        logEvent(code, 0);
+    }
 
+    /**
+     * Log an event with a value (kept in the timeline)
+     * @param code Code of the key (TrialEvent.Code)
+     * @param value Value (e.g., zoom amount)
+     */
+    public void logEvent(int code, float value) {
+        assert SwingUtilities.isEventDispatchThread() : "Logex used off the EDT";
+        if (conLog.isDebugEnabled() && timeline.firstIndexOf(code) < 0) {
+            conLog.debug("Logged first {}", EventCodes.keyOf(code));
+        }
+        timeline.append(code, System.nanoTime(), value);
     }
 
     /**
@@ -106,40 +123,105 @@ public class Logex {
      * @param errCode int code (from ErrorEvent)
      */
     public void logError(String errKey, int errCode) {
-        errorLogs.put(errKey, new ErrorEvent(errKey, errCode));
+        logError(EventCodes.codeOf(errKey), errCode);
+    }
+
+    /**
+     * Log an error
+     * @param code Code of the key (ErrorEvent.Code)
+     * @param errCode int code (from ErrorEvent)
+     */
+    public void logError(int code, int errCode) {
+        assert SwingUtilities.isEventDispatchThread() : "Logex used off the EDT";
+        timeline.append(code, System.nanoTime(), errCode);
+        nErrors++;
+        conLog.debug("{} – {}", EventCodes.keyOf(code), errCode);
+    }
+
+    /**
+     * Get the number of errors logged in the trial
+     * @return Count
+     */
+    public int getErrorCount() {
+        return nErrors;
     }
 
     /**
-     * Get a TrialEvent
-     * @param name Name of the event
-     * @return TrialEvent
+     * Get the number of events (and errors) logged in the trial
+     * @return Count
      */
-    public TrialEvent getTrialEvent(String name) {
-        return trialLogs.get(name);
+    public int getEventCount() {
+        return timeline.size();
     }
 
     /**
-     * Get the Instant of a TrialEvent
+     * Get the timeline of the active trial (all the events and errors)
+     * @return TrialTimeline (cleared when the next trial is activated)
+     */
+    public TrialTimeline getTimeline() {
+        return timeline;
+    }
+
+    /**
+     * Get the time of a TrialEvent
+     * @param name TrialEvent name (key, or first_/last_ + key)
+     * @return System.nanoTime() of the event (NOT_LOGGED if not logged)
+     */
+    public long getTrialTime(String name) {
+        final int ref = refOf(name);
+        return ((ref & 1) == 1) ? getFirstTime(ref >> 1) : getLastTime(ref >> 1);
+    }
+
+    /**
+     * Get the time of the first occurrence of an event
+     * @param code Code of the key (TrialEvent.Code)
+     * @return System.nanoTime() (NOT_LOGGED if not logged)
+     */
+    public long getFirstTime(int code) {
+        final int index = timeline.firstIndexOf(code);
+        return (index >= 0) ? timeline.getTime(index) : NOT_LOGGED;
+    }
+
+    /**
+     * Get the time of the last occurrence of an event
+     * @param code Code of the key (TrialEvent.Code)
+     * @return System.nanoTime() (NOT_LOGGED if not logged)
+     */
+    public long getLastTime(int code) {
+        final int index = timeline.lastIndexOf(code);
+        return (index >= 0) ? timeline.getTime(index) : NOT_LOGGED;
+    }
+
+    /**
+     * Get the Instant of a TrialEvent (on the wall clock of the session start)
      * @param name TrialEvent name
-     * @return Instant
+     * @return Instant (Instant.MIN if not logged)
      */
     public Instant getTrialInstant(String name) {
-        if (hasLogged(name)) return getTrialEvent(name).getInstant();
-        else return Instant.MIN;
+        final long time = getTrialTime(name);
+        return (time != NOT_LOGGED) ? Instant.ofEpochMilli(toWallClock(time)) : Instant.MIN;
     }
 
     /**
-     * Return the duration (in sec.) between two Instants (indicated by begin and end keys)
+     * Convert an event time to the wall clock (using the anchor; later clock adjustments don't apply)
+     * @param nanoTime System.nanoTime()
+     * @return Milliseconds since the epoch
+     */
+    public long toWallClock(long nanoTime) {
+        return anchorMillis + Math.floorDiv(nanoTime - anchorNanos, 1_000_000L);
+    }
+
+    /**
+     * Return the duration (in sec.) between two events (indicated by begin and end keys)
      * @param beginKey String begin key
      * @param endKey String end key
-     * @return double Duration (in seconds)
+     * @return double Duration (in seconds; NaN if one wasn't logged)
      */
     public double getDurationSec(String beginKey, String endKey) {
-        Instant beginInst = getTrialInstant(beginKey);
-        Instant endInst = getTrialInstant(endKey);
-        conLog.debug("Begin = {}, End = {}", beginInst, endInst);
-        if (beginInst.equals(Instant.MIN) || endInst.equals(Instant.MIN)) return Double.NaN;
-        else return Duration.between(beginInst, endInst).toMillis() / 1000.0;
+        final long begin = getTrialTime(beginKey);
+        final long end = getTrialTime(endKey);
+        if (begin == NOT_LOGGED || end == NOT_LOGGED) return Double.NaN;
+        else return (end - begin) / 1e9;
     }
 
     /**
@@ -148,17 +230,40 @@ public class Logex {
      * @return True if events for this key are logged
      */
     public boolean hasLoggedKey(String key) {
-        String lastName = TrialEvent.getLast(key);
-        if (!lastName.isEmpty()) return trialLogs.containsKey(lastName);
-        return false;
+        return key != null && hasLogged(EventCodes.codeOf(key));
     }
 
     /**
-     * Extract the time from the map
-     * @param eventName Name of the event
-     * @return Time (long)
+     * Has it logged this event?
+     * @param eventName Name of the event (key, or first_/last_ + key)
+     * @return True if logged
      */
     public boolean hasLogged(String eventName) {
-        return trialLogs.containsKey(eventName);
+        return hasLogged(refOf(eventName) >> 1); // First and last are logged together
+    }
+
+    /**
+     * Has it logged this event?
+     * @param code Code of the key (TrialEvent.Code)
+     * @return True if logged
+     */
+    public boolean hasLogged(int code) {
+        return timeline.lastIndexOf(code) >= 0;
+    }
+
+    /**
+     * Resolve an event name (e.g., "first_zoom") to the code of its key (done once per name)
+     * @param name Key, or first_/last_ + key (a key alone is its last occurrence)
+     * @return Code << 1 | 1 if first
+     */
+    private static int refOf(String name) {
+        final Integer ref = nameRefs.get(name);
+        if (ref != null) return ref;
+
+        return nameRefs.computeIfAbsent(name, n -> {
+            if (n.startsWith(FIRST_PREFIX)) return EventCodes.codeOf(n.substring(FIRST_PREFIX.length())) << 1 | 1;
+            if (n.startsWith(LAST_PREFIX)) return EventCodes.codeOf(n.substring(LAST_PREFIX.length())) << 1;
+            return EventCodes.codeOf(n) << 1;
+        });
     }
 }
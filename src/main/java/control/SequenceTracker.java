@@ -0,0 +1,128 @@
+package control;
+
+/**
+ * Tracks the sequence numbers of a datagram stream (loss, reordering, duplicates)
+ * Uses a sliding window (last 64 numbers) to tell late packets from duplicates.
+ * A big jump back (or a run of too-old packets) is a restarted sender: the stream is resynced to it.
+ * Only used from the I/O thread; the counters can be read from anywhere.
+ */
+public class SequenceTracker {
+    private static final int WINDOW = Long.SIZE;
+    private static final int RESET_DISTANCE = 1024; // Further back -> the sender restarted its numbers
+    private static final int MAX_STALE = 8; // Too-old packets in a row -> the sender restarted (close to 0)
+
+    private boolean started;
+    private long highest; // Highest seq. number received
+    private long window; // Bit i set = (highest - i) received
+    private int nStale; // Too-old packets in a row
+
+    private volatile long received;
+    private volatile long lost;
+    private volatile long reordered;
+    private volatile long duplicates;
+    private volatile long resyncs;
+
+    /**
+     * Register a received sequence number
+     * @param seq Sequence number (unsigned 32-bit, wraps around)
+     * @return True if the packet should be used (false for duplicates and too old)
+     */
+    public boolean accept(int seq) {
+        final long s = Integer.toUnsignedLong(seq);
+        if (!started) {
+            started = true;
+            highest = s;
+            window = 1;
+            received++;
+            return true;
+        }
+
+        // Distance from the highest (handles the wrap-around)
+        final int dist = seq - (int) highest;
+
+        if (dist > 0) { // New packet (maybe after a gap)
+            nStale = 0;
+            lost += dist - 1;
+            window = (dist >= WINDOW) ? 1 : (window << dist) | 1;
+            highest = s;
+            received++;
+            return true;
+        }
+
+        final int back = -dist;
+        if (back >= WINDOW) { // Too old to know -> a duplicate, unless the sender restarted
+            if (back >= RESET_DISTANCE || ++nStale >= MAX_STALE) {
+                resync(s);
+                return true;
+            }
+            duplicates++;
+            return false;
+        }
+
+        final long bit = 1L << back;
+        if ((window & bit) != 0) { // Already received
+            duplicates++;
+            return false;
+        }
+
+        // Late packet (was counted as lost)
+        nStale = 0;
+        window |= bit;
+        lost--;
+        reordered++;
+        received++;
+        return true;
+    }
+
+    /**
+     * Restart the stream from this packet (the sender restarted its numbers)
+     * @param s Sequence number (unsigned)
+     */
+    private void resync(long s) {
+        highest = s;
+        window = 1;
+        nStale = 0;
+        resyncs++;
+        received++;
+    }
+
+    /**
+     * Forget the stream (a new sender starts from any number)
+     */
+    public void reset() {
+        started = false;
+        window = 0;
+        nStale = 0;
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getLost() {
+        return lost;
+    }
+
+    public long getReordered() {
+        return reordered;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    @Override
+    public String toString() {
+        return "SequenceTracker{" +
+                "received=" + received +
+                ", lost=" + lost +
+                ", reordered=" + reordered +
+                ", duplicates=" + duplicates +
+                ", resyncs=" + resyncs +
+                '}';
+    }
+}
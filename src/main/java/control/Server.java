@@ -1,29 +1,122 @@
 package control;
 
+import enums.Transport;
 import moose.Memo;
 import moose.Moose;
 import org.tinylog.Logger;
 import org.tinylog.TaggedLogger;
+import tool.AsciiSequence;
 import tool.Constants.*;
+import tool.LatencyHistogram;
 
 import java.io.*;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
 
 public class Server {
     private final TaggedLogger conLog = Logger.tag(getClass().getSimpleName());
 
     private static Server instance; // Singelton
 
-    public static final int PORT = 8000; // always the same
+    public static final int PORT = 8000; // Default session
+    public static final Path UDS_PATH = Path.of(System.getProperty("java.io.tmpdir"), "moose.sock"); // Local bridges
+    public static final Path JOURNAL_DIR = Path.of(System.getProperty("user.dir"), "journal"); // Raw input
 
-    private ServerSocket serverSocket;
-    private Socket openSocket;
-    private PrintWriter outPW;
-    private BufferedReader inBR;
-    private final ExecutorService executor;
+    private static final int READ_BUFFER_SIZE = 8 * 1024; // bytes
+    private static final int MAX_LINE_LENGTH = 1024; // bytes
+    private static final int WRITE_BUFFER_SIZE = 4 * 1024; // bytes
+    private static final int DATAGRAM_SIZE = 1500; // bytes (one Memo per datagram)
+    private static final int SHUTDOWN_WAIT = 500; // ms
+    private static final int PING_INTERVAL = 1000; // ms (RTT and clock offset)
+    private static final int LIVENESS_CHECK = 250; // ms (select timeout)
+    private static final long HEARTBEAT_TIMEOUT_NS = 5_000_000_000L; // Silent for longer -> connection lost
+    private static final long RECONNECT_WINDOW_NS = 30_000_000_000L; // A lost device can resume within this
+    private static final int MAX_JITTER_DELAY = 200; // ms (more would be felt as lag)
+    private static final int MAX_UNKNOWN_SENDERS = 64; // UDP endpoints tracked apart (the rest share one tracker)
+
+    private static final int OUT_QUEUE_CAPACITY = 1024; // Memos
+    private static final int MAX_WRITE_BATCH = 64; // Memos coalesced into one write
+    private static final int WRITER_POLL = 100; // ms (checking for shutdown)
+    private static final long WRITE_RETRY_NS = 100_000; // Wait when the socket buffer is full
+    private static final long WRITE_TIMEOUT_NS = 1_000_000_000; // Give up on a device that doesn't read
+
+    private static final EncodedMemo END_MESSAGE = EncodedMemo.of(new Memo(STRINGS.CONNECTION, STRINGS.END, ""));
+
+    private final int port; // TCP and UDP
+    private final Path udsPath;
+
+    private volatile Selector selector; // Woken by the writer and shutDown()
+    private Transport transport = Transport.TCP;
+    private ServerSocketChannel serverChannel; // TCP
+    private ServerSocketChannel udsChannel; // Unix-domain socket
+    private final ByteBuffer inBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE); // Shared by all devices
+
+    // Connected devices (key: device id)
+    private final Map<Integer, DeviceLink> links = new ConcurrentHashMap<>();
+    private final Map<Integer, DeviceLink> lostLinks = new ConcurrentHashMap<>(); // Waiting to resume
+    private final LatencyHistogram reconnectGap = new LatencyHistogram(); // Lost -> resumed (I/O thread)
+    private long nResumed;
+    private long nExpired;
+    private int lastDeviceId;
+    private DeviceLink readingLink; // The device being decoded (I/O thread)
+    private long readTime; // System.nanoTime() of the last read (I/O thread)
+    private volatile long jitterDelay; // Playout delay of the deltas (ns; 0 = delivered on arrival)
+    private final FrameDecoder.Listener frameListener = new FrameDecoder.Listener() {
+        @Override
+        public void onLine(CharSequence line) {
+            if (journal != null) journal.append(InputJournal.TEXT, readingLink.id, readTime, line);
+            onMemo(readingLink, obtainMemo().decode(line));
+        }
+
+        @Override
+        public void onFrame(ByteBuffer frame) {
+            if (journal != null) journal.append(InputJournal.FRAME, readingLink.id, readTime, frame);
+            onMemo(readingLink, obtainMemo().decodeFrame(frame));
+        }
+    };
+
+    // Raw input of the session (null = not recorded)
+    private Path journalDir = JOURNAL_DIR;
+    private volatile InputJournal journal;
+
+    // UDP lane for SCROLL/ZOOM (datagram = seq. number (int32) + frame or text line)
+    private DatagramChannel datagramChannel;
+    private final ByteBuffer datagramBuffer = ByteBuffer.allocateDirect(DATAGRAM_SIZE);
+    private final SequenceTracker datagramTracker = new SequenceTracker(); // Unknown senders (beyond the ones below)
+    private final Map<InetSocketAddress, DeviceLink> datagramLinks = new HashMap<>(); // UDP endpoint -> device (I/O thread)
+    private final Map<InetSocketAddress, SequenceTracker> unknownTrackers = new HashMap<>(); // Per endpoint (I/O thread)
+    private long datagramRejected; // Non-delta Memos received on UDP
+    private final AsciiSequence datagramView = new AsciiSequence(); // Text datagrams are decoded in place
+
+    // Outgoing messages (any thread -> the writer thread)
+    private final BlockingQueue<Outgoing> outQueue = new ArrayBlockingQueue<>(OUT_QUEUE_CAPACITY);
+    private final Queue<FailedWrite> failedWrites = new ConcurrentLinkedQueue<>(); // Writer -> I/O thread (disconnect)
+    private final LatencyHistogram writeLatency = new LatencyHistogram(); // Enqueue -> written
+    private volatile CountDownLatch writerDone; // One per start
+    private final LongAdder outDropped = new LongAdder(); // Queue was full or the device was lost (any thread)
+    private volatile long nWrites; // Number of (coalesced) writes
+    private volatile long nWritten; // Number of Memos written
+
+    private final ExecutorService executor; // I/O thread + writer thread
+    private volatile boolean running;
 
     private Moose moose;
 
@@ -34,17 +127,23 @@ public class Server {
      */
     public static Server get() {
         if (instance == null) {
-            instance = new Server();
+            instance = new Server(PORT);
         }
         return instance;
     }
 
     /**
-     * Constructor
+     * Constructor (other than the default instance: one per Session)
+     * @param port Port of the devices (the Unix-domain socket is named after it)
      */
-    private Server() {
-        // Init executerService for running threads
-        executor = Executors.newCachedThreadPool();
+    public Server(int port) {
+        this.port = port;
+        udsPath = (port == PORT)
+                ? UDS_PATH
+                : Path.of(System.getProperty("java.io.tmpdir"), "moose-" + port + ".sock");
+
+        // One thread accepts/reads and one writes, for all the devices
+        executor = Executors.newFixedThreadPool(2);
     }
 
     /**
@@ -55,88 +154,810 @@ public class Server {
         this.moose = moose;
     }
 
+    /**
+     * Set the transport(s) the devices connect with (before start)
+     * @param transport Transport
+     */
+    public void setTransport(Transport transport) {
+        if (running) {
+            conLog.warn("Transport can't be changed while running");
+            return;
+        }
+        this.transport = transport;
+    }
+
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Set where the raw input is journaled (before start)
+     * @param dir Directory (null = no journal)
+     */
+    public void setJournalDir(Path dir) {
+        journalDir = dir;
+    }
+
+    /**
+     * Set the playout delay of the deltas: SCROLL/ZOOM with a device timestamp are held so they are delivered
+     * at the cadence they were produced in (not in the clusters they arrive in). No deltas are held longer.
+     * @param delay Delay (ms; 0 = off, capped to MAX_JITTER_DELAY)
+     */
+    public void setJitterDelay(int delay) {
+        jitterDelay = TimeUnit.MILLISECONDS.toNanos(Math.max(0, Math.min(delay, MAX_JITTER_DELAY)));
+    }
+
+    public int getJitterDelay() {
+        return (int) TimeUnit.NANOSECONDS.toMillis(jitterDelay);
+    }
+
     //----------------------------------------------------------------------------------------
 
-    //-- Runnable for waiting for incoming connections
-    private class ConnWaitRunnable implements Runnable {
+    //-- Runnable for the selector loop (accepting and receiving)
+    private class IORunnable implements Runnable {
+        private final CountDownLatch writerDone;
+
+        IORunnable(CountDownLatch writerDone) {
+            this.writerDone = writerDone;
+        }
+
         @Override
         public void run() {
             try {
                 conLog.trace("Opening socket...");
-                if (serverSocket == null) {
-                    conLog.trace("Socket was null");
-                    serverSocket = new ServerSocket(PORT);
+                openJournal();
+                selector = Selector.open();
+                if (transport.hasTcp()) {
+                    serverChannel = ServerSocketChannel.open();
+                    serverChannel.bind(new InetSocketAddress(port));
+                    serverChannel.configureBlocking(false);
+                    serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+                    datagramChannel = DatagramChannel.open();
+                    datagramChannel.bind(new InetSocketAddress(port));
+                    datagramChannel.configureBlocking(false);
+                    datagramChannel.register(selector, SelectionKey.OP_READ);
+                }
+
+                if (transport.hasUds()) {
+                    Files.deleteIfExists(udsPath); // Left from a previous run
+                    udsChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+                    udsChannel.bind(UnixDomainSocketAddress.of(udsPath));
+                    udsChannel.configureBlocking(false);
+                    udsChannel.register(selector, SelectionKey.OP_ACCEPT);
+                }
+                conLog.trace("Accepting connections ({})...", transport);
+
+                long nextPingTime = System.nanoTime();
+                while (running && !Thread.currentThread().isInterrupted()) {
+                    selector.select(selectTimeout());
+
+                    final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        final SelectionKey key = keys.next();
+                        keys.remove();
+
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) accept((ServerSocketChannel) key.channel());
+                        else if (key.channel() == datagramChannel) receive();
+                        else if (key.isReadable()) read((DeviceLink) key.attachment());
+                    }
+
+                    // Time to ping the devices? (only those that sent HELLO: older firmware knows only KEEP_ALIVE)
+                    final long now = System.nanoTime();
+                    if (now - nextPingTime >= 0) {
+                        for (DeviceLink link : links.values()) {
+                            if (link.caps.version() >= DeviceCaps.PROTOCOL_VERSION) ping(link, now);
+                        }
+                        nextPingTime = now + TimeUnit.MILLISECONDS.toNanos(PING_INTERVAL);
+                    }
+                    disconnectFailed();
+                    releaseDeltas(now);
+                    if (moose != null) moose.flushHeld(now); // Deltas merged while the EDT lagged
+                    checkLiveness(now);
                 }
-                conLog.trace("Accepting connections...");
-                openSocket = serverSocket.accept();
-
-                // Create streams
-                inBR = new BufferedReader(new InputStreamReader(openSocket.getInputStream()));
-                outPW = new PrintWriter(
-                        new BufferedWriter(new OutputStreamWriter(openSocket.getOutputStream())),
-                        true);
-                conLog.trace("Ready! Listening to incoming messages...");
-                // Start receiving
-                executor.execute(new InRunnable());
 
             } catch (IOException e) {
-                //noinspection CallToPrintStackTrace
-                e.printStackTrace();
+                conLog.warn("Error in the I/O loop: {}", e.getMessage());
+            } finally {
+                // Also when opening failed: the writer stops and start() can be called again
+                running = false;
+
+                // Last messages (e.g., END) are sent by the writer before closing
+                try {
+                    writerDone.await(SHUTDOWN_WAIT, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                for (DeviceLink link : links.values()) disconnect(link);
+                closeQuietly(serverChannel);
+                closeQuietly(datagramChannel);
+                if (udsChannel != null) {
+                    closeQuietly(udsChannel);
+                    try {
+                        Files.deleteIfExists(udsPath);
+                    } catch (IOException ignored) {
+                        conLog.trace("Couldn't delete {}", udsPath);
+                    }
+                }
+                closeQuietly(selector);
+                if (journal != null) journal.close();
+                conLog.info("UDP (unknown senders): {}", datagramTracker);
+                conLog.trace("I/O loop ended");
             }
         }
     }
 
-    //-- Runnable for sending messages to Moose
-    private class OutRunnable implements Runnable {
-        private final Memo message;
+    /**
+     * Start the journal of this session (input is still served if it can't be created)
+     */
+    private void openJournal() {
+        if (journalDir == null) return;
 
-        public OutRunnable(Memo msg) {
-            this.message = msg;
+        String session = "session_" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        if (port != PORT) session += "_p" + port; // Sessions started in the same second
+        try {
+            journal = new InputJournal(journalDir, session);
+        } catch (IOException e) {
+            conLog.warn("No input journal: {}", e.getMessage());
         }
+    }
 
-        @Override
-        public void run() {
-            if (message != null && outPW != null) {
-                outPW.println(message);
-                outPW.flush();
+    /**
+     * Accept a new device connection (all connections are kept)
+     * @param server ServerSocketChannel (TCP or Unix-domain)
+     * @throws IOException If accepting fails
+     */
+    private void accept(ServerSocketChannel server) throws IOException {
+        final SocketChannel channel = server.accept();
+        if (channel == null) return;
+
+        channel.configureBlocking(false);
+        if (server == serverChannel) {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            channel.setOption(StandardSocketOptions.SO_KEEPALIVE, true);
+        }
+
+        // Same legacy device coming back? -> resume it (same id, buffers and clock sync)
+        // (Devices that send HELLO are resumed by their token, when it arrives)
+        final DeviceLink lost = findLostLink(channel);
+        if (lost != null) {
+            lostLinks.remove(lost.id);
+            lost.resume(channel);
+            channel.register(selector, SelectionKey.OP_READ, lost);
+            links.put(lost.id, lost);
+            logResumed(lost);
+            return;
+        }
+
+        final DeviceLink link = new DeviceLink(++lastDeviceId, channel, MAX_LINE_LENGTH, WRITE_BUFFER_SIZE);
+        channel.register(selector, SelectionKey.OP_READ, link);
+        links.put(link.id, link);
+        conLog.info("{} connected ({} devices)", link, links.size());
+    }
+
+    /**
+     * Find the lost link of a reconnecting legacy device (same remote address and port; no token)
+     * @param channel SocketChannel (new connection)
+     * @return DeviceLink or null (always for Unix-domain connections)
+     */
+    private DeviceLink findLostLink(SocketChannel channel) {
+        InetSocketAddress remote = null;
+        try {
+            if (channel.getRemoteAddress() instanceof InetSocketAddress inet) remote = inet;
+        } catch (IOException ignored) {
+            conLog.trace("No remote address");
+        }
+        if (remote == null) return null;
+
+        for (DeviceLink link : lostLinks.values()) {
+            if (link.token == null && remote.equals(link.remote)) return link;
+        }
+        return null;
+    }
+
+    /**
+     * Find the lost link of a device by the token it sent in HELLO
+     * @param token Token
+     * @return DeviceLink or null
+     */
+    private DeviceLink findLostLink(String token) {
+        for (DeviceLink link : lostLinks.values()) {
+            if (token.equals(link.token)) return link;
+        }
+        return null;
+    }
+
+    /**
+     * A device identified itself: if it was lost, its link takes over the new connection (the new one is dropped)
+     * @param link DeviceLink of the connection (made on accept)
+     * @param token Token from HELLO
+     * @return The link of the device (the resumed one, or link)
+     */
+    private DeviceLink identify(DeviceLink link, String token) {
+        final DeviceLink lost = findLostLink(token);
+        if (lost == null) {
+            link.token = token;
+            return link;
+        }
+
+        links.remove(link.id, link);
+        lostLinks.remove(lost.id);
+        lost.resume(link);
+        final SelectionKey key = link.channel.keyFor(selector);
+        if (key != null) key.attach(lost);
+        links.put(lost.id, lost);
+        if (readingLink == link) readingLink = lost; // Rest of this read
+        logResumed(lost);
+        return lost;
+    }
+
+    private void logResumed(DeviceLink link) {
+        unbindDatagrams(link); // Its UDP socket may be new too
+        final long gap = System.nanoTime() - link.lostTime;
+        reconnectGap.record(gap);
+        nResumed++;
+        conLog.info("{} resumed after {} ms ({} devices)", link, TimeUnit.NANOSECONDS.toMillis(gap), links.size());
+    }
+
+    /**
+     * Disconnect the devices the writer couldn't write to (only the I/O thread changes the links)
+     * A device that reconnected since (new channel) is kept.
+     */
+    private void disconnectFailed() {
+        FailedWrite failed;
+        while ((failed = failedWrites.poll()) != null) {
+            if (failed.link().channel == failed.channel()) disconnect(failed.link());
+        }
+    }
+
+    /**
+     * Time to wait for the channels: until the next held delta is due (at most LIVENESS_CHECK)
+     * Deltas held by Moose (EDT lagging) are checked every ms.
+     * @return Timeout (ms, >= 1; 0 would block)
+     */
+    private long selectTimeout() {
+        if (moose != null && moose.hasHeldDeltas()) return 1; // Passed on as soon as the EDT catches up
+
+        long next = Long.MAX_VALUE;
+        for (DeviceLink link : links.values()) next = Math.min(next, link.jitterBuffer.nextRelease());
+        for (DeviceLink link : lostLinks.values()) next = Math.min(next, link.jitterBuffer.nextRelease());
+        if (next == Long.MAX_VALUE) return LIVENESS_CHECK;
+
+        final long wait = next - System.nanoTime();
+        return Math.max(1, Math.min(LIVENESS_CHECK, (wait + 999_999) / 1_000_000));
+    }
+
+    /**
+     * Deliver the held deltas that are due (also of the lost devices)
+     * @param now System.nanoTime()
+     */
+    private void releaseDeltas(long now) {
+        for (DeviceLink link : links.values()) releaseDeltas(link, now);
+        for (DeviceLink link : lostLinks.values()) releaseDeltas(link, now);
+    }
+
+    private void releaseDeltas(DeviceLink link, long now) {
+        Memo memo;
+        while ((memo = link.jitterBuffer.poll(now)) != null) {
+            if (moose != null) moose.processMooseEvent(memo);
+        }
+    }
+
+    /**
+     * Pass a delta (SCROLL/ZOOM) on to Moose: held in the jitter buffer if on and the delta has a timestamp
+     * @param link DeviceLink (null = unknown sender)
+     * @param memo Memo
+     * @param arrivalTime System.nanoTime() of arrival
+     */
+    private void deliverDelta(DeviceLink link, Memo memo, long arrivalTime) {
+        final long delay = jitterDelay;
+        if (link != null && delay > 0 && link.caps.hasPacingClock()
+                && link.jitterBuffer.offer(memo, arrivalTime, delay)) {
+            return;
+        }
+        if (moose != null) moose.processMooseEvent(memo);
+    }
+
+    /**
+     * Close the silent connections and forget the devices that didn't come back in time
+     * Only devices that did the handshake are pinged, so only they must answer in time (any input counts);
+     * legacy devices and idle clients are left to TCP (SO_KEEPALIVE) and to the read errors.
+     * @param now System.nanoTime()
+     */
+    private void checkLiveness(long now) {
+        for (DeviceLink link : links.values()) {
+            if (link.caps.version() >= DeviceCaps.PROTOCOL_VERSION
+                    && now - link.lastReceiveTime > HEARTBEAT_TIMEOUT_NS) {
+                conLog.warn("{} silent for {} ms", link, TimeUnit.NANOSECONDS.toMillis(now - link.lastReceiveTime));
+                disconnect(link);
+            }
+        }
+
+        for (DeviceLink link : lostLinks.values()) {
+            if (now - link.lostTime > RECONNECT_WINDOW_NS) {
+                lostLinks.remove(link.id);
+                unbindDatagrams(link);
+                nExpired++;
+                conLog.info("{} didn't come back – UDP: {}; {}", link, link.datagramTracker, link.clockSync);
+            }
+        }
+    }
+
+    /**
+     * Read everything available from a device and pass the complete lines/frames on
+     * @param link DeviceLink
+     */
+    private void read(DeviceLink link) {
+        readingLink = link;
+        try {
+            int nRead;
+            while ((nRead = link.channel.read(inBuffer)) > 0) {
+                readTime = System.nanoTime();
+                link.lastReceiveTime = readTime;
+                inBuffer.flip();
+                link.decoder.decode(inBuffer, frameListener);
+                inBuffer.clear();
+                link = readingLink; // Changes if the device resumed (HELLO with a token)
+            }
+
+            if (nRead < 0) {
+                conLog.trace("Moose Disconnected");
+                disconnect(link);
+            }
+        } catch (IOException e) {
+            conLog.warn("Error in reading from {}", link);
+            inBuffer.clear();
+            disconnect(link);
+        }
+    }
+
+    /**
+     * Receive all the available datagrams (only SCROLL/ZOOM are accepted on UDP)
+     * Datagrams are matched to a connected device by the sender's endpoint (address + port).
+     * A device binds its endpoint with CONNECTION,HELLO,..,token (needed when several share a host).
+     */
+    private void receive() {
+        try {
+            SocketAddress sender;
+            while ((sender = datagramChannel.receive(datagramBuffer)) != null) {
+                datagramBuffer.flip();
+                final InetSocketAddress endpoint = (InetSocketAddress) sender;
+                final DeviceLink link = findLink(endpoint);
+                final SequenceTracker tracker = (link != null) ? link.datagramTracker : unknownTracker(endpoint);
+
+                final long receiveTime = System.nanoTime();
+                if (link != null) link.lastReceiveTime = receiveTime;
+                if (datagramBuffer.remaining() > Integer.BYTES && tracker.accept(datagramBuffer.getInt())) {
+                    if (journal != null) {
+                        journal.append(InputJournal.DATAGRAM, (link != null) ? link.id : Moose.ANY_DEVICE,
+                                receiveTime, datagramBuffer);
+                    }
+                    final Memo memo = readDatagramMemo(datagramBuffer);
+                    switch (memo.getAction()) {
+                        case STRINGS.SCROLL, STRINGS.ZOOM -> {
+                            memo.setDeviceId(link != null ? link.id : Moose.ANY_DEVICE);
+                            deliverDelta(link, memo, receiveTime);
+                        }
+                        case STRINGS.CONNECTION -> {
+                            if (!memo.getMode().equals(STRINGS.HELLO) || !bindDatagrams(endpoint, memo.getDebug())) {
+                                datagramRejected++;
+                            }
+                            recycleMemo(memo);
+                        }
+                        default -> {
+                            datagramRejected++;
+                            recycleMemo(memo);
+                        }
+                    }
+                }
+                datagramBuffer.clear();
+            }
+        } catch (IOException e) {
+            conLog.warn("Error in receiving from Moose (UDP)");
+            datagramBuffer.clear();
+        }
+    }
+
+    /**
+     * Get the Memo of a datagram (after the seq. number)
+     * @param buffer ByteBuffer
+     * @return Memo (empty if not valid)
+     */
+    private Memo readDatagramMemo(ByteBuffer buffer) {
+        final Memo memo = obtainMemo();
+        if (buffer.get(buffer.position()) == Memo.FRAME_MARKER) {
+            if (buffer.remaining() < Memo.FRAME_SIZE) return memo;
+            buffer.get(); // Marker
+            return memo.decodeFrame(buffer);
+        }
+
+        return memo.decode(datagramView.wrap(buffer));
+    }
+
+    /**
+     * Get an empty Memo for decoding (reused from the Moose pool when possible)
+     * @return Memo
+     */
+    private Memo obtainMemo() {
+        return (moose != null) ? moose.obtainMemo() : new Memo();
+    }
+
+    /**
+     * Give back a decoded Memo that isn't passed on to Moose
+     * @param memo Memo (not used after)
+     */
+    private void recycleMemo(Memo memo) {
+        if (moose != null) moose.recycleMemo(memo);
+    }
+
+    /**
+     * Find the connected device of a UDP endpoint
+     * An endpoint not seen yet is bound to the device on that host, if there is only one without UDP.
+     * @param endpoint InetSocketAddress of the sender
+     * @return DeviceLink or null (not known, or ambiguous until the device binds it)
+     */
+    private DeviceLink findLink(InetSocketAddress endpoint) {
+        DeviceLink link = datagramLinks.get(endpoint);
+        if (link == null) {
+            for (DeviceLink candidate : links.values()) {
+                if (candidate.datagramRemote != null || !endpoint.getAddress().equals(candidate.remoteAddress)) continue;
+                if (link != null) return null; // Several devices on this host
+                link = candidate;
+            }
+            if (link == null) return null;
+            bindDatagrams(endpoint, link);
+        }
+        return (link.state == DeviceLink.State.CONNECTED) ? link : null;
+    }
+
+    /**
+     * Bind a UDP endpoint to the device with this token (sent in its HELLO)
+     * @param endpoint InetSocketAddress of the sender
+     * @param token Token
+     * @return True if a device has the token
+     */
+    private boolean bindDatagrams(InetSocketAddress endpoint, String token) {
+        if (token == null || token.isBlank()) return false;
+        for (DeviceLink link : links.values()) {
+            if (token.trim().equals(link.token)) {
+                bindDatagrams(endpoint, link);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void bindDatagrams(InetSocketAddress endpoint, DeviceLink link) {
+        if (endpoint.equals(link.datagramRemote)) return; // Already bound
+
+        final DeviceLink previous = datagramLinks.put(endpoint, link);
+        if (previous != null && previous != link) previous.datagramRemote = null;
+        if (link.datagramRemote != null && !link.datagramRemote.equals(endpoint)) {
+            datagramLinks.remove(link.datagramRemote);
+        }
+        link.datagramRemote = endpoint;
+        unknownTrackers.remove(endpoint);
+        conLog.info("{} UDP from {}", link, endpoint);
+    }
+
+    /**
+     * Forget the UDP endpoint of a device (it resumed or expired)
+     * @param link DeviceLink
+     */
+    private void unbindDatagrams(DeviceLink link) {
+        if (link.datagramRemote != null) datagramLinks.remove(link.datagramRemote, link);
+        link.datagramRemote = null;
+    }
+
+    /**
+     * Get the tracker of an unknown UDP endpoint (each tracked apart, so their numbers don't mix)
+     * @param endpoint InetSocketAddress of the sender
+     * @return SequenceTracker (the shared one beyond MAX_UNKNOWN_SENDERS)
+     */
+    private SequenceTracker unknownTracker(InetSocketAddress endpoint) {
+        final SequenceTracker tracker = unknownTrackers.get(endpoint);
+        if (tracker != null) return tracker;
+        if (unknownTrackers.size() >= MAX_UNKNOWN_SENDERS) return datagramTracker;
+
+        final SequenceTracker created = new SequenceTracker();
+        unknownTrackers.put(endpoint, created);
+        return created;
+    }
+
+    /**
+     * Process one received Memo (from a line or a frame)
+     * @param link DeviceLink that sent the Memo
+     * @param memo Memo
+     */
+    private void onMemo(DeviceLink link, Memo memo) {
+        memo.setDeviceId(link.id);
+
+        switch (memo.getAction()) {
+            case STRINGS.CLICK -> {
+                if (moose != null) moose.processMooseEvent(memo);
+            }
+            case STRINGS.SCROLL, STRINGS.ZOOM -> deliverDelta(link, memo, readTime);
+            case STRINGS.CONNECTION -> {
+                switch (memo.getMode()) {
+                    // Send back the message (as confirmation)
+                    case STRINGS.KEEP_ALIVE -> send(link.id, keepAliveEcho(link, memo));
+
+                    // Answer to our ping (device time in the timestamp or value2)
+                    case STRINGS.PING -> {
+                        final long deviceTime = (memo.getTimestamp() != 0)
+                                ? memo.getTimestamp()
+                                : (long) memo.getV2Double();
+                        link.clockSync.onPong(memo.getV1Int(), deviceTime, System.nanoTime());
+                    }
+
+                    // Handshake: version + encodings [+ token] -> agreed version and the picked encoding (in text)
+                    case STRINGS.HELLO -> {
+                        final String token = memo.getDebug();
+                        if (token != null && !token.isBlank()) {
+                            link = identify(link, token.trim());
+                            memo.setDeviceId(link.id);
+                        }
+                        link.caps = link.caps.withHello(memo.getV1Int(), memo.getValue2());
+                        link.binaryOut = link.caps.isBinary();
+                        send(link.id, new Memo(STRINGS.CONNECTION, STRINGS.HELLO,
+                                link.caps.version(), link.caps.encoding()));
+                        conLog.info("{} protocol v{}, encoding: {}", link, link.caps.version(), link.caps.encoding());
+                    }
+
+                    // Handshake: max. sample rate + clock resolution -> the picked merge policy
+                    case STRINGS.CAPS -> {
+                        link.caps = link.caps.withCaps(memo.getV1Int(), memo.getV2Int());
+                        if (moose != null) moose.setMergePolicy(link.id, link.caps.mergePolicy());
+                        send(link.id, new Memo(STRINGS.CONNECTION, STRINGS.CAPS,
+                                link.caps.mergePolicy().name(), link.caps.maxSampleRate()));
+                        conLog.info("{} {} Hz, clock {} us, deltas: {}", link, link.caps.maxSampleRate(),
+                                link.caps.clockResolution(), link.caps.mergePolicy());
+                    }
+
+                    // Device asks for an encoding -> confirm it (in text) and use it from now on
+                    case STRINGS.ENCODING -> {
+                        link.binaryOut = memo.getValue1().equals(STRINGS.BINARY);
+                        final String encoding = link.binaryOut ? STRINGS.BINARY : STRINGS.TEXT;
+                        send(link.id, new Memo(STRINGS.CONNECTION, STRINGS.ENCODING, encoding, 0));
+                        conLog.info("{} encoding: {}", link, encoding);
+                    }
+                }
+                recycleMemo(memo); // Handled here
             }
+            default -> recycleMemo(memo);
         }
     }
 
-    //-- Runnable for receiving messages from Moose
-    private class InRunnable implements Runnable {
+    /**
+     * Get the echo of a KEEP_ALIVE (encoded once while the device keeps sending the same)
+     * @param link DeviceLink
+     * @param memo Received KEEP_ALIVE
+     * @return EncodedMemo
+     */
+    private EncodedMemo keepAliveEcho(DeviceLink link, Memo memo) {
+        final EncodedMemo cached = link.keepAliveEcho;
+        if (cached != null && cached.getMemo().hasSameContent(memo)) return cached;
+
+        link.keepAliveEcho = EncodedMemo.of(Memo.valueOf(memo.toString())); // memo goes back to the pool
+        return link.keepAliveEcho;
+    }
+
+    /**
+     * Send a ping to a device (answered with the device clock)
+     * @param link DeviceLink
+     * @param now System.nanoTime()
+     */
+    private void ping(DeviceLink link, long now) {
+        final int seq = link.clockSync.newPing(now);
+        send(link.id, new Memo(STRINGS.CONNECTION, STRINGS.PING, seq, 0));
+    }
+
+    //-- A Memo waiting to be written (encoded = its encodings made beforehand, or null)
+    private record Outgoing(DeviceLink link, Memo memo, EncodedMemo encoded, long enqueueTime) {}
+
+    //-- A connection the writer gave up on (closed by the I/O thread)
+    private record FailedWrite(DeviceLink link, SocketChannel channel) {}
+
+    //-- Runnable for writing the outgoing Memos (the only thread that writes to the devices)
+    private class WriterRunnable implements Runnable {
+        private final ArrayList<Outgoing> batch = new ArrayList<>(MAX_WRITE_BATCH);
+        private final boolean[] written = new boolean[MAX_WRITE_BATCH];
+        private final CountDownLatch writerDone;
+
+        WriterRunnable(CountDownLatch writerDone) {
+            this.writerDone = writerDone;
+        }
+
         @Override
         public void run() {
-            while (!Thread.interrupted() && inBR != null) {
-                try {
-                    String message = inBR.readLine();
-                    conLog.trace("Message: {}", message);
-                    if (message != null) {
-                        Memo memo = Memo.valueOf(message);
-
-                        switch (memo.getAction()) {
-                            case STRINGS.CLICK, STRINGS.SCROLL, STRINGS.ZOOM -> {
-                                moose.processMooseEvent(memo);
-                            }
-                            case STRINGS.CONNECTION -> {
-                                if (memo.getMode().equals(STRINGS.KEEP_ALIVE)) {
-                                    // Send back the message (as confirmation)
-                                    send(memo);
-                                }
-                            }
+            try {
+                while (running || !outQueue.isEmpty()) {
+                    final Outgoing first = outQueue.poll(WRITER_POLL, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+
+                    // Take whatever else is pending, then write
+                    batch.add(first);
+                    outQueue.drainTo(batch, MAX_WRITE_BATCH - 1);
+                    writeBatch();
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                writerDone.countDown();
+                conLog.trace("Writer ended");
+            }
+        }
+
+        /**
+         * Write the batch: the Memos of each device are encoded together and written at once (order is kept)
+         */
+        private void writeBatch() {
+            final int n = batch.size();
+            Arrays.fill(written, 0, n, false);
+
+            for (int i = 0; i < n; i++) {
+                if (written[i]) continue;
+                final DeviceLink link = batch.get(i).link();
+                if (link.state != DeviceLink.State.CONNECTED || link.channel == link.failedChannel) { // Lost -> dropped
+                    for (int j = i; j < n; j++) {
+                        if (!written[j] && batch.get(j).link() == link) {
+                            written[j] = true;
+                            outDropped.increment();
                         }
-                    } else {
-                        conLog.trace("Moose Disconnected");
-                        start();
-                        break;
                     }
-                } catch (IOException e) {
-                    conLog.warn("Error in reading from Moose");
-                    start();
+                    continue;
+                }
+
+                link.outBuffer.clear();
+                int from = i;
+                for (int j = i; j < n; j++) {
+                    final Outgoing out = batch.get(j);
+                    if (out.link() != link) continue;
+
+                    // No room for this one -> write what's encoded so far
+                    if (link.outBuffer.remaining() < encodedSize(link, out)) {
+                        writeOut(link, from, j);
+                        link.outBuffer.clear();
+                        from = j;
+                    }
+                    encode(link, out, link.outBuffer);
+                }
+                writeOut(link, from, n);
+            }
+        }
+
+        /**
+         * Write the encoded buffer of a device and mark its Memos (from-to in the batch) as written
+         * @param link DeviceLink
+         * @param from First index in the batch
+         * @param to End index in the batch (exclusive)
+         */
+        private void writeOut(DeviceLink link, int from, int to) {
+            link.outBuffer.flip();
+            final boolean ok = link.outBuffer.hasRemaining() && writeFully(link, link.outBuffer);
+            if (ok) nWrites++;
+
+            final long now = System.nanoTime();
+            for (int k = from; k < to; k++) {
+                final Outgoing out = batch.get(k);
+                if (written[k] || out.link() != link) continue;
+                written[k] = true; // Done (even if failed -> the device is disconnected)
+                if (ok) {
+                    writeLatency.record(now - out.enqueueTime());
+                    nWritten++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the whole buffer (waits a bit if the socket buffer is full)
+     * @param link DeviceLink
+     * @param buffer ByteBuffer
+     * @return True if written
+     */
+    private boolean writeFully(DeviceLink link, ByteBuffer buffer) {
+        final SocketChannel channel = link.channel;
+        final long deadline = System.nanoTime() + WRITE_TIMEOUT_NS;
+        try {
+            while (buffer.hasRemaining()) {
+                if (channel.write(buffer) == 0) {
+                    if (System.nanoTime() > deadline) {
+                        conLog.warn("{} doesn't read, closing", link);
+                        failWrite(link, channel);
+                        return false;
+                    }
+                    LockSupport.parkNanos(WRITE_RETRY_NS);
                 }
             }
+            return true;
+        } catch (IOException e) {
+            conLog.warn("Error in writing to {}", link);
+            failWrite(link, channel);
+            return false;
+        }
+    }
+
+    /**
+     * Stop writing to a connection and have the I/O thread disconnect it
+     * @param link DeviceLink
+     * @param channel SocketChannel that failed
+     */
+    private void failWrite(DeviceLink link, SocketChannel channel) {
+        link.failedChannel = channel;
+        failedWrites.offer(new FailedWrite(link, channel));
+        final Selector current = selector;
+        if (current != null) current.wakeup();
+    }
+
+    /**
+     * Size of a Memo in the negotiated encoding
+     * @param link DeviceLink (receiver)
+     * @param out Outgoing
+     * @return Size in bytes
+     */
+    private int encodedSize(DeviceLink link, Outgoing out) {
+        final boolean framed = isFramed(link, out.memo());
+        if (out.encoded() != null) return out.encoded().size(framed);
+        return framed ? Memo.FRAME_SIZE : out.memo().getTextLength();
+    }
 
-            conLog.trace("inBR: {}", inBR);
+    /**
+     * Should this Memo go as a binary frame?
+     * @param link DeviceLink (receiver)
+     * @param memo Memo
+     * @return True for binary
+     */
+    private boolean isFramed(DeviceLink link, Memo memo) {
+        return link.binaryOut && memo.isFramable() && !memo.getMode().equals(STRINGS.ENCODING);
+    }
+
+    /**
+     * Encode a Memo in the negotiated encoding (ENCODING messages are always text, as are HELLO/CAPS: no codes)
+     * Pre-encoded Memos are only copied; the others are written straight into the buffer (no Strings).
+     * @param link DeviceLink (receiver)
+     * @param out Outgoing
+     * @param buffer ByteBuffer to write into
+     */
+    private void encode(DeviceLink link, Outgoing out, ByteBuffer buffer) {
+        final boolean framed = isFramed(link, out.memo());
+        if (out.encoded() != null) out.encoded().writeTo(framed, buffer);
+        else if (framed) out.memo().writeFrame(buffer);
+        else out.memo().writeText(buffer);
+    }
+
+    /**
+     * Close the connection of a device (the server keeps accepting)
+     * While running, the device is kept for a while so it can resume.
+     * @param link DeviceLink
+     */
+    private void disconnect(DeviceLink link) {
+        closeQuietly(link.channel);
+        if (links.remove(link.id, link)) {
+            link.state = DeviceLink.State.LOST;
+            if (running) {
+                link.lostTime = System.nanoTime();
+                lostLinks.put(link.id, link);
+                conLog.info("{} lost ({} devices)", link, links.size());
+            } else {
+                conLog.info("{} disconnected ({} devices) – UDP: {}; {}; {}",
+                        link, links.size(), link.datagramTracker, link.clockSync, link.jitterBuffer);
+            }
+        }
+    }
+
+    /**
+     * Close without throwing
+     * @param closeable Closeable
+     */
+    private void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+            conLog.trace("Couldn't close {}", closeable);
         }
     }
 
@@ -145,38 +966,261 @@ public class Server {
      * Start the server
      */
     public void start() {
-        executor.execute(new ConnWaitRunnable());
+        if (running) return;
+        running = true;
+        writerDone = new CountDownLatch(1);
+        executor.execute(new IORunnable(writerDone));
+        executor.execute(new WriterRunnable(writerDone));
     }
 
     /**
      * Shut down the server
      */
     public void shutDown() {
+        // Send end message to the devices
+        send(END_MESSAGE);
+
+        // Stop the loops (the writer sends the remaining messages, then the channels are closed)
+        running = false;
+        if (selector != null) selector.wakeup();
+
+        conLog.trace("Shutting down the executer...");
+        executor.shutdown();
         try {
-            // Send end message to the Moose
-            send(new Memo(STRINGS.CONNECTION, STRINGS.END, ""));
-
-            // Close the socket, etc.
-            if (serverSocket != null && openSocket != null) {
-                conLog.trace("Closing the socket...");
-                serverSocket.close();
-                openSocket.close();
-            }
-            conLog.trace("Shutting down the executer...");
-            if (executor != null) executor.shutdownNow();
-        } catch (IOException e) {
-            conLog.trace("Couldn't close the socket!");
-            e.printStackTrace();
+            if (!executor.awaitTermination(SHUTDOWN_WAIT, TimeUnit.MILLISECONDS)) executor.shutdownNow();
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
         }
     }
 
     /**
-     * Send a Memo to the Moose
-     * Called from outside
+     * Get the port of the devices
+     * @return Port (TCP and UDP)
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Get the Unix-domain socket of the devices
+     * @return Path
+     */
+    public Path getUdsPath() {
+        return udsPath;
+    }
+
+    /**
+     * Get the journal of this session
+     * @return InputJournal (null if not recording)
+     */
+    public InputJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * Mark the start of a task in the journal (with the jitter delay, which replay applies again)
+     * @param taskId Task id
+     * @param seed Seed of the session's random numbers
+     */
+    public void markTask(int taskId, long seed) {
+        final InputJournal current = journal;
+        if (current != null) current.markTask(taskId, seed, getJitterDelay());
+    }
+
+    /**
+     * Mark the end of a trial in the journal (written to the disk in the background)
+     * @param trialNum Trial number
+     */
+    public void markTrial(int trialNum) {
+        final InputJournal current = journal;
+        if (current != null) current.markTrial(trialNum);
+    }
+
+    /**
+     * Get the number of connected devices
+     * @return Number of devices
+     */
+    public int getDeviceCount() {
+        return links.size();
+    }
+
+    /**
+     * Get the loss/reorder counters of the UDP lane (for a device)
+     * @param deviceId Device id
+     * @return SequenceTracker (of the unknown senders if the device is not connected)
+     */
+    public SequenceTracker getDatagramStats(int deviceId) {
+        final DeviceLink link = links.get(deviceId);
+        return (link != null) ? link.datagramTracker : datagramTracker;
+    }
+
+    /**
+     * Get the raw vs. smoothed intervals of the deltas of a device
+     * @param deviceId Device id
+     * @return JitterBuffer (null if the device is not known)
+     */
+    public JitterBuffer getJitterStats(int deviceId) {
+        final DeviceLink link = links.getOrDefault(deviceId, lostLinks.get(deviceId));
+        return (link != null) ? link.jitterBuffer : null;
+    }
+
+    /**
+     * Get what a device announced in the handshake and what was picked for it
+     * @param deviceId Device id
+     * @return DeviceCaps (null if the device is not connected)
+     */
+    public DeviceCaps getDeviceCaps(int deviceId) {
+        final DeviceLink link = links.get(deviceId);
+        return (link != null) ? link.caps : null;
+    }
+
+    /**
+     * Get the RTT/clock offset of a device
+     * @param deviceId Device id
+     * @return ClockSync (null if the device is not connected)
+     */
+    public ClockSync getClockSync(int deviceId) {
+        final DeviceLink link = links.get(deviceId);
+        return (link != null) ? link.clockSync : null;
+    }
+
+    /**
+     * Map a device timestamp onto the host timeline (System.nanoTime() base)
+     * @param deviceId Device id
+     * @param deviceTime Device time (µs)
+     * @return Host time (ns); Long.MIN_VALUE if not known
+     */
+    public long toHostNanos(int deviceId, long deviceTime) {
+        final ClockSync clockSync = getClockSync(deviceId);
+        return (clockSync != null) ? clockSync.toHostNanos(deviceTime) : Long.MIN_VALUE;
+    }
+
+    /**
+     * Get the number of non-delta Memos received on UDP (and ignored)
+     * @return Count
+     */
+    public long getDatagramRejected() {
+        return datagramRejected;
+    }
+
+    /**
+     * Get the number of Memos waiting to be written
+     * @return Queue depth
+     */
+    public int getOutQueueDepth() {
+        return outQueue.size();
+    }
+
+    /**
+     * Get the latencies from send() to written on the socket
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * Get the times from losing a device to its resuming
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getReconnectGap() {
+        return reconnectGap;
+    }
+
+    /**
+     * Get the number of devices that resumed after losing the connection
+     * @return Count
+     */
+    public long getResumedCount() {
+        return nResumed;
+    }
+
+    /**
+     * Get the number of lost devices that didn't come back in time
+     * @return Count
+     */
+    public long getExpiredCount() {
+        return nExpired;
+    }
+
+    /**
+     * Get the number of devices waiting to resume
+     * @return Count
+     */
+    public int getLostDeviceCount() {
+        return lostLinks.size();
+    }
+
+    /**
+     * Get the number of Memos dropped because the out queue was full or the device was lost
+     * @return Count
+     */
+    public long getOutDropped() {
+        return outDropped.sum();
+    }
+
+    /**
+     * Get the average number of Memos in one write
+     * @return Memos per write
+     */
+    public double getWriteBatchRatio() {
+        return (nWrites == 0) ? 0 : (double) nWritten / nWrites;
+    }
+
+    /**
+     * Send a Memo to all the connected devices
+     * Called from outside (never blocks; dropped if the queue is full)
      *
      * @param msg Memo message
      */
     public void send(Memo msg) {
-        executor.execute(new OutRunnable(msg));
+        if (msg == null) return;
+        for (DeviceLink link : links.values()) enqueue(link, msg);
+    }
+
+    /**
+     * Send a Memo to one device
+     *
+     * @param deviceId Device id
+     * @param msg Memo message
+     */
+    public void send(int deviceId, Memo msg) {
+        final DeviceLink link = links.get(deviceId);
+        if (msg == null || link == null) return;
+        enqueue(link, msg);
+    }
+
+    /**
+     * Send a pre-encoded Memo to all the connected devices (only its bytes are copied)
+     *
+     * @param msg EncodedMemo
+     */
+    public void send(EncodedMemo msg) {
+        if (msg == null) return;
+        for (DeviceLink link : links.values()) enqueue(link, msg.getMemo(), msg);
+    }
+
+    /**
+     * Send a pre-encoded Memo to one device
+     *
+     * @param deviceId Device id
+     * @param msg EncodedMemo
+     */
+    public void send(int deviceId, EncodedMemo msg) {
+        final DeviceLink link = links.get(deviceId);
+        if (msg == null || link == null) return;
+        enqueue(link, msg.getMemo(), msg);
+    }
+
+    private void enqueue(DeviceLink link, Memo msg) {
+        enqueue(link, msg, null);
+    }
+
+    private void enqueue(DeviceLink link, Memo msg, EncodedMemo encoded) {
+        if (!outQueue.offer(new Outgoing(link, msg, encoded, System.nanoTime()))) {
+            outDropped.increment();
+            conLog.warn("Out queue full, {} dropped", msg);
+        }
     }
 }
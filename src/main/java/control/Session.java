@@ -0,0 +1,192 @@
+package control;
+
+import enums.Task;
+import enums.Technique;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * One experiment session: the participant, the task settings, its Server, Logex and random numbers
+ * Several sessions can run in one JVM (each on its own port, with or without a frame); they share only the
+ * stimuli (tool.StimulusCache). The default session uses Server.get() and Logex.get().
+ */
+public class Session {
+    private static Session defaultSession;
+
+    //-- Defaults (zoom)
+    public static final int DEFAULT_MAX_NOTCHES = 120; // Arbitrary (between Win 44 and Mac 300)
+    public static final int[] DEFAULT_TARGET_DISTS = {15, 30, 60}; // In notches
+    public static final int DEFAULT_NOTCHES_IN_ELEMENT = 6;
+
+    public static final Path RESULTS_DIR = Path.of(System.getProperty("user.dir"), "results"); // Trial results
+
+    private final Server server;
+    private final Logex logex;
+    private Random random = new Random(); // Trials, positions (seeded for replay)
+
+    private String pID = "100";
+    private Technique technique;
+    private Path resultsDir = RESULTS_DIR;
+    private TrialWriter trialWriter; // Results of the running task (null = not saved)
+    private int maxNotches = DEFAULT_MAX_NOTCHES;
+    private int[] targetDists = DEFAULT_TARGET_DISTS.clone();
+    private int notchesInElement = DEFAULT_NOTCHES_IN_ELEMENT;
+
+    /**
+     * Get the default session (the one on Server.PORT)
+     * @return Session
+     */
+    public static synchronized Session getDefault() {
+        if (defaultSession == null) defaultSession = new Session(Server.get(), Logex.get());
+        return defaultSession;
+    }
+
+    /**
+     * Create a session with its own Server
+     * @param port Port the devices connect to (TCP/UDP; the Unix socket is named after it)
+     */
+    public Session(int port) {
+        this(new Server(port), new Logex());
+    }
+
+    private Session(Server server, Logex logex) {
+        this.server = server;
+        this.logex = logex;
+    }
+
+    /**
+     * Is this the default session? (its frame exits the JVM when closed)
+     * @return True if getDefault() returned it
+     */
+    public boolean isDefault() {
+        synchronized (Session.class) {
+            return this == defaultSession;
+        }
+    }
+
+    /**
+     * Start saving the trial results of a task (one CSV file per task)
+     * @param task Task
+     */
+    public void startResults(Task task) {
+        if (trialWriter != null) trialWriter.close();
+        if (resultsDir == null) return;
+
+        final String name = String.join("_",
+                "P" + pID, String.valueOf(technique), task.toString(),
+                LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")));
+        trialWriter = new TrialWriter(resultsDir.resolve(name + ".csv"));
+    }
+
+    /**
+     * Get the writer of the trial results
+     * @return TrialWriter (null if the results are not saved, e.g., in replay)
+     */
+    public TrialWriter getTrialWriter() {
+        return trialWriter;
+    }
+
+    /**
+     * Set the directory of the trial results
+     * @param resultsDir Directory (null = not saved)
+     */
+    public void setResultsDir(Path resultsDir) {
+        this.resultsDir = resultsDir;
+    }
+
+    /**
+     * Stop the Server (the devices get END) and write the pending results
+     */
+    public void close() {
+        server.shutDown();
+        if (trialWriter != null) trialWriter.close();
+    }
+
+    public Server getServer() {
+        return server;
+    }
+
+    public Logex getLogex() {
+        return logex;
+    }
+
+    /**
+     * Seed the random numbers of the session (the same seed gives the same trials)
+     * @param seed Seed
+     */
+    public void setSeed(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Get the random generator of the session (EDT)
+     * @return Random
+     */
+    public Random random() {
+        return random;
+    }
+
+    public String getPID() {
+        return pID;
+    }
+
+    public void setPID(String pID) {
+        this.pID = pID;
+    }
+
+    public Technique getTechnique() {
+        return technique;
+    }
+
+    public void setTechnique(Technique technique) {
+        this.technique = technique;
+    }
+
+    public int getMaxNotches() {
+        return maxNotches;
+    }
+
+    public void setMaxNotches(int maxNotches) {
+        this.maxNotches = maxNotches;
+    }
+
+    public int[] getTargetDists() {
+        return targetDists.clone();
+    }
+
+    public void setTargetDists(int... targetDists) {
+        this.targetDists = targetDists.clone();
+    }
+
+    public int getNotchesInElement() {
+        return notchesInElement;
+    }
+
+    public void setNotchesInElement(int notchesInElement) {
+        this.notchesInElement = notchesInElement;
+    }
+
+    /**
+     * Get the number of elements in each row (= column) of the zoom grid
+     * @return Number of elements
+     */
+    public int getNZoomElements() {
+        return (maxNotches / notchesInElement) * 2 + 1;
+    }
+
+    @Override
+    public String toString() {
+        return "Session{" +
+                "pID=" + pID +
+                ", technique=" + technique +
+                ", port=" + server.getPort() +
+                ", maxNotches=" + maxNotches +
+                ", targetDists=" + Arrays.toString(targetDists) +
+                ", notchesInElement=" + notchesInElement +
+                '}';
+    }
+}
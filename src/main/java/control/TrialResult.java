@@ -0,0 +1,89 @@
+package control;
+
+import enums.Task;
+import enums.Technique;
+import enums.TrialEvent;
+import model.BaseTrial;
+import model.PanTrial;
+import model.ZoomTrial;
+
+/**
+ * Outcome of one trial (one CSV row); built on the EDT, written by the TrialWriter
+ * Durations are in seconds (NaN = not applicable or not logged -> empty cell); open_time is epoch ms.
+ */
+public record TrialResult(
+        String pID, Technique technique, Task task,
+        int blockNum, int trialNum, int trialId, int status, int retries,
+        int startNotch, int targetNotch, int panLevel, int panRotation,
+        long openTime, double openToClose, double enterToSpace, double firstZoomToSpace,
+        double enterToLastZoom, double firstZoomToLastZoom, double firstPanToLastPan,
+        int nEvents, int nErrors) {
+
+    public static final String HEADER = "pid,technique,task,block,trial,trial_id,status,retries," +
+            "start_notch,target_notch,pan_level,pan_rotation," +
+            "open_time,open_to_close,enter_to_space,first_zoom_to_space," +
+            "enter_to_last_zoom,first_zoom_to_last_zoom,first_pan_to_last_pan," +
+            "n_events,n_errors";
+
+    /**
+     * Take the result of the active trial from its log (call after TRIAL_CLOSE is logged)
+     * @param session Session (participant, technique)
+     * @param trial BaseTrial
+     * @param status TrialStatus
+     * @param logex Logex of the trial
+     * @return TrialResult
+     */
+    public static TrialResult of(Session session, BaseTrial trial, int status, Logex logex) {
+        final ZoomTrial zoomTrial = (trial instanceof ZoomTrial z) ? z : null;
+        final PanTrial panTrial = (trial instanceof PanTrial p) ? p : null;
+
+        return new TrialResult(
+                session.getPID(), session.getTechnique(), trial.task,
+                trial.blockNum, trial.trialNum, trial.id, status, trial.retries,
+                (zoomTrial != null) ? zoomTrial.startNotch : -1,
+                (zoomTrial != null) ? zoomTrial.targetNotch : -1,
+                (panTrial != null) ? panTrial.level : -1,
+                (panTrial != null && panTrial.rotation != null) ? panTrial.rotation : -1,
+                logex.toWallClock(logex.getFirstTime(TrialEvent.Code.TRIAL_OPEN)),
+                logex.getDurationSec(TrialEvent.TRIAL_OPEN, TrialEvent.TRIAL_CLOSE),
+                logex.getDurationSec(TrialEvent.getLast(TrialEvent.VIEWPORT_ENTER), TrialEvent.SPACE_PRESS),
+                logex.getDurationSec(TrialEvent.getFirst(TrialEvent.ZOOM), TrialEvent.SPACE_PRESS),
+                logex.getDurationSec(TrialEvent.getLast(TrialEvent.VIEWPORT_ENTER), TrialEvent.getLast(TrialEvent.ZOOM)),
+                logex.getDurationSec(TrialEvent.getFirst(TrialEvent.ZOOM), TrialEvent.getLast(TrialEvent.ZOOM)),
+                logex.getDurationSec(TrialEvent.getFirst(TrialEvent.PAN), TrialEvent.getLast(TrialEvent.PAN)),
+                logex.getEventCount(),
+                logex.getErrorCount());
+    }
+
+    /**
+     * Append the CSV row (without the line end)
+     * @param sb StringBuilder
+     */
+    void appendCsv(StringBuilder sb) {
+        sb.append(pID).append(',')
+                .append(technique != null ? technique : "").append(',')
+                .append(task).append(',')
+                .append(blockNum).append(',')
+                .append(trialNum).append(',')
+                .append(trialId).append(',')
+                .append(status).append(',')
+                .append(retries).append(',')
+                .append(startNotch).append(',')
+                .append(targetNotch).append(',')
+                .append(panLevel).append(',')
+                .append(panRotation).append(',')
+                .append(openTime).append(',');
+        appendDuration(sb, openToClose).append(',');
+        appendDuration(sb, enterToSpace).append(',');
+        appendDuration(sb, firstZoomToSpace).append(',');
+        appendDuration(sb, enterToLastZoom).append(',');
+        appendDuration(sb, firstZoomToLastZoom).append(',');
+        appendDuration(sb, firstPanToLastPan).append(',');
+        sb.append(nEvents).append(',')
+                .append(nErrors);
+    }
+
+    private static StringBuilder appendDuration(StringBuilder sb, double sec) {
+        return Double.isNaN(sec) ? sb : sb.append(sec);
+    }
+}
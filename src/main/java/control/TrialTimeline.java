@@ -0,0 +1,129 @@
+package control;
+
+import java.util.Arrays;
+
+/**
+ * Append-only timeline of the events of one trial (every occurrence, in order)
+ * Stored in parallel primitive arrays (code, System.nanoTime(), value) that only grow, so logging doesn't box
+ * or allocate after warm-up. The first/last occurrence of each code is kept by index.
+ */
+public class TrialTimeline {
+    private static final int INITIAL_CAPACITY = 256; // Events (doubled when full)
+    private static final int INITIAL_CODES = 32;
+
+    private int[] codes = new int[INITIAL_CAPACITY];
+    private long[] times = new long[INITIAL_CAPACITY];
+    private float[] values = new float[INITIAL_CAPACITY];
+    private int size;
+
+    // Index of the first/last occurrence of each code (-1 = none)
+    private int[] firstIndex = new int[INITIAL_CODES];
+    private int[] lastIndex = new int[INITIAL_CODES];
+
+    /**
+     * Constructor
+     */
+    public TrialTimeline() {
+        Arrays.fill(firstIndex, -1);
+        Arrays.fill(lastIndex, -1);
+    }
+
+    /**
+     * Add an event
+     * @param code Event code (EventCodes.codeOf)
+     * @param time System.nanoTime()
+     * @param value Payload (e.g., zoom amount, error code; 0 if none)
+     */
+    void append(int code, long time, float value) {
+        if (size == codes.length) {
+            final int capacity = size * 2;
+            codes = Arrays.copyOf(codes, capacity);
+            times = Arrays.copyOf(times, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        if (code >= firstIndex.length) growCodes(code);
+
+        codes[size] = code;
+        times[size] = time;
+        values[size] = value;
+        if (firstIndex[code] < 0) firstIndex[code] = size;
+        lastIndex[code] = size;
+        size++;
+    }
+
+    /**
+     * Start over (the arrays are kept)
+     */
+    void clear() {
+        Arrays.fill(firstIndex, -1);
+        Arrays.fill(lastIndex, -1);
+        size = 0;
+    }
+
+    private void growCodes(int code) {
+        final int oldLength = firstIndex.length;
+        final int length = Math.max(oldLength * 2, code + 1);
+        firstIndex = Arrays.copyOf(firstIndex, length);
+        lastIndex = Arrays.copyOf(lastIndex, length);
+        Arrays.fill(firstIndex, oldLength, length, -1);
+        Arrays.fill(lastIndex, oldLength, length, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getCode(int index) {
+        return codes[index];
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public float getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Index of the first occurrence of a code
+     * @param code Event code
+     * @return Index (-1 if not logged)
+     */
+    public int firstIndexOf(int code) {
+        return (code >= 0 && code < firstIndex.length) ? firstIndex[code] : -1;
+    }
+
+    /**
+     * Index of the last occurrence of a code
+     * @param code Event code
+     * @return Index (-1 if not logged)
+     */
+    public int lastIndexOf(int code) {
+        return (code >= 0 && code < lastIndex.length) ? lastIndex[code] : -1;
+    }
+
+    /**
+     * Number of occurrences of a code
+     * @param code Event code
+     * @return Count
+     */
+    public int count(int code) {
+        final int first = firstIndexOf(code);
+        if (first < 0) return 0;
+
+        int n = 0;
+        for (int i = first; i <= lastIndex[code]; i++) {
+            if (codes[i] == code) n++;
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return "TrialTimeline{" +
+                "size=" + size +
+                ", capacity=" + codes.length +
+                '}';
+    }
+}
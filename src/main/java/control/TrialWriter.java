@@ -0,0 +1,152 @@
+package control;
+
+import org.tinylog.Logger;
+import org.tinylog.TaggedLogger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Writes the trial results of a task to a CSV file on its own thread
+ * The EDT only offers to a bounded queue (never blocks on the disk); the writer takes what is pending
+ * and writes it as one batch, flushed so a crash loses at most the batch being written.
+ */
+public class TrialWriter implements Closeable {
+    private final TaggedLogger conLog = Logger.tag(getClass().getSimpleName());
+
+    private static final int QUEUE_CAPACITY = 256; // Results (a task has ~150 trials)
+    private static final int MAX_BATCH = 64; // Results per write
+    private static final int POLL_TIMEOUT = 100; // ms (checking for close)
+    private static final int CLOSE_WAIT = 2000; // ms
+
+    private final Path file;
+    private BufferedWriter writer; // Writer thread
+    private final BlockingQueue<TrialResult> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private volatile long nWritten;
+    private final LongAdder nDropped = new LongAdder(); // Queue was full or closed (EDT and writer thread)
+
+    /**
+     * Start writing (the file is opened on the writer thread)
+     * @param file CSV file (appended to; the directory is created if needed)
+     */
+    public TrialWriter(Path file) {
+        this.file = file;
+        thread = new Thread(this::run, "TrialWriter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queue a result (EDT; returns at once)
+     * @param result TrialResult
+     * @return False if it was dropped (queue full or closed)
+     */
+    public boolean write(TrialResult result) {
+        if (running && queue.offer(result)) return true;
+
+        nDropped.increment();
+        conLog.warn("Result of trial {} dropped", result.trialId());
+        return false;
+    }
+
+    private void run() {
+        try {
+            open();
+        } catch (IOException e) {
+            running = false;
+            conLog.error("Results are not saved: {}", e.getMessage());
+            return;
+        }
+
+        final ArrayList<TrialResult> batch = new ArrayList<>(MAX_BATCH);
+        final StringBuilder sb = new StringBuilder();
+        try {
+            while (running || !queue.isEmpty()) {
+                final TrialResult first = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+
+                // Take whatever else is pending, then write
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                sb.setLength(0);
+                for (TrialResult result : batch) {
+                    result.appendCsv(sb);
+                    sb.append(System.lineSeparator());
+                }
+                try {
+                    writer.write(sb.toString());
+                    writer.flush();
+                    nWritten += batch.size();
+                } catch (IOException e) {
+                    nDropped.add(batch.size());
+                    conLog.error("Can't write the results: {}", e.getMessage());
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                conLog.trace("Couldn't close {}", file);
+            }
+            conLog.trace("Writer ended ({} written, {} dropped)", nWritten, nDropped.sum());
+        }
+    }
+
+    /**
+     * Open the file (the header is written if it is new)
+     * @throws IOException If it can't be opened
+     */
+    private void open() throws IOException {
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        final boolean isNew = !Files.exists(file) || Files.size(file) == 0;
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (isNew) {
+            writer.write(TrialResult.HEADER);
+            writer.newLine();
+            writer.flush();
+        }
+        conLog.info("Writing the results to {}", file);
+    }
+
+    /**
+     * Write the pending results and close the file
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            thread.join(CLOSE_WAIT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public long getWrittenCount() {
+        return nWritten;
+    }
+
+    public long getDroppedCount() {
+        return nDropped.sum();
+    }
+}
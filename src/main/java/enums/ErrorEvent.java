@@ -3,13 +3,8 @@ package enums;
 import org.tinylog.Logger;
 import org.tinylog.TaggedLogger;
 
-import java.time.Clock;
-import java.time.Instant;
-import java.time.ZoneId;
-import java.time.temporal.ChronoField;
-
 public class ErrorEvent {
-    private final TaggedLogger conLog = Logger.tag(getClass().getSimpleName());
+    private static final TaggedLogger conLog = Logger.tag(ErrorEvent.class.getSimpleName());
 
     // Zoom
     public static final String FIRST_ZOOM = "err_zoom";
@@ -33,17 +28,26 @@ public class ErrorEvent {
     public static final int INSIDE_PVP = 4;
     public static final int WRONG_DIRECTION = 5;
 
+    //-- Interned codes of the keys (the int codes above are the reasons, logged as values)
+    public static class Code {
+        public static final int FIRST_ZOOM = EventCodes.codeOf(ErrorEvent.FIRST_ZOOM);
+        public static final int CLICK = EventCodes.codeOf(ErrorEvent.CLICK);
+        public static final int SCROLL = EventCodes.codeOf(ErrorEvent.SCROLL);
+        public static final int SPACE_ZOOM = EventCodes.codeOf(ErrorEvent.SPACE_ZOOM);
+        public static final int SPACE_PAN = EventCodes.codeOf(ErrorEvent.SPACE_PAN);
+    }
+
     // Fields
     private String key;
     private int code;
-    private final Instant instant;
+    private final long time; // System.nanoTime()
 
     public ErrorEvent(String key, int code) {
         this.key = key;
         this.code = code;
-        this.instant = Instant.now();
+        this.time = System.nanoTime();
 
-        conLog.debug("{} – {} - {}", key, code, instant.toString());
+        conLog.debug("{} – {} - {}", key, code, time);
     }
 
 }
@@ -0,0 +1,56 @@
+package enums;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned codes of the event keys (TrialEvent and ErrorEvent): the same key always gets the same code
+ * Codes are dense (0, 1, ...), so they index flat arrays. Shared by all the sessions in the JVM.
+ */
+public final class EventCodes {
+    private static final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private static final List<String> keys = new ArrayList<>(); // Index: code
+
+    private EventCodes() {
+    }
+
+    /**
+     * Get the code of a key (assigned on first use)
+     * @param key Key from TrialEvent or ErrorEvent
+     * @return Code
+     */
+    public static int codeOf(String key) {
+        final Integer code = codes.get(key);
+        if (code != null) return code;
+
+        synchronized (keys) {
+            return codes.computeIfAbsent(key, k -> {
+                keys.add(k);
+                return keys.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * Get the key of a code
+     * @param code Code (from codeOf)
+     * @return Key (null if unknown)
+     */
+    public static String keyOf(int code) {
+        synchronized (keys) {
+            return (code >= 0 && code < keys.size()) ? keys.get(code) : null;
+        }
+    }
+
+    /**
+     * Get the number of codes so far
+     * @return Count (codes are below it)
+     */
+    public static int count() {
+        synchronized (keys) {
+            return keys.size();
+        }
+    }
+}
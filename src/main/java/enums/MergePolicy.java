@@ -0,0 +1,28 @@
+package enums;
+
+@SuppressWarnings("unused")
+public enum MergePolicy {
+    MERGE(1, "Merge"), // Consecutive deltas of a device are summed before the listeners (faster than the display)
+    EACH(2, "Each"); // Every delta reaches the listeners (each one is a step)
+
+    private final int id;
+    private final String text;
+
+    MergePolicy(int id, String text) {
+        this.id = id;
+        this.text = text;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
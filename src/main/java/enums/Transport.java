@@ -0,0 +1,37 @@
+package enums;
+
+@SuppressWarnings("unused")
+public enum Transport {
+    TCP(1, "TCP"), // TCP (+ UDP lane) on Server.PORT
+    UDS(2, "Unix socket"), // Unix-domain socket at Server.UDS_PATH (local bridges)
+    TCP_UDS(3, "TCP + Unix socket");
+
+    private final int id;
+    private final String text;
+
+    Transport(int id, String text) {
+        this.id = id;
+        this.text = text;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public boolean hasTcp() {
+        return this != UDS;
+    }
+
+    public boolean hasUds() {
+        return this != TCP;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
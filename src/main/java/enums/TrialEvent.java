@@ -3,10 +3,8 @@ package enums;
 import org.tinylog.Logger;
 import org.tinylog.TaggedLogger;
 
-import java.time.Instant;
-
 public class TrialEvent {
-    private final TaggedLogger conLog = Logger.tag(getClass().getSimpleName());
+    private static final TaggedLogger conLog = Logger.tag(TrialEvent.class.getSimpleName());
 
     public static final String TRIAL_OPEN = "trial_open";
 
@@ -44,16 +42,31 @@ public class TrialEvent {
     public static final String FOCUS_EXIT = "focus_exit";
     public static final String VIEWPORT_EXIT = "viewport_exit";
 
+    //-- Interned codes of the keys (Logex works with these; the Strings are the adapter)
+    public static class Code {
+        public static final int TRIAL_OPEN = EventCodes.codeOf(TrialEvent.TRIAL_OPEN);
+        public static final int SPACE_PRESS = EventCodes.codeOf(TrialEvent.SPACE_PRESS);
+        public static final int TRIAL_CLOSE = EventCodes.codeOf(TrialEvent.TRIAL_CLOSE);
+
+        public static final int MOVE = EventCodes.codeOf(TrialEvent.MOVE);
+        public static final int VIEWPORT_ENTER = EventCodes.codeOf(TrialEvent.VIEWPORT_ENTER);
+        public static final int ZOOM = EventCodes.codeOf(TrialEvent.ZOOM);
+        public static final int PAN = EventCodes.codeOf(TrialEvent.PAN);
+        public static final int FOCUS_ENTER = EventCodes.codeOf(TrialEvent.FOCUS_ENTER);
+        public static final int FOCUS_EXIT = EventCodes.codeOf(TrialEvent.FOCUS_EXIT);
+        public static final int VIEWPORT_EXIT = EventCodes.codeOf(TrialEvent.VIEWPORT_EXIT);
+    }
+
     private final String key;
-    private final Instant instant;
+    private final long time;
 
     /**
-     * Create an instant (time is always Instant.now())
+     * Create an event (time is always System.nanoTime())
      * @param n Name of the event (constant String from the class itself)
      */
     public TrialEvent(String n) {
         key = n;
-        instant = Instant.now();
+        time = System.nanoTime();
     }
 
     /**
@@ -65,11 +78,11 @@ public class TrialEvent {
     }
 
     /**
-     * Get the instant of the event
-     * @return Instant
+     * Get the time of the event
+     * @return System.nanoTime() (monotonic; Logex.toWallClock for the wall clock)
      */
-    public Instant getInstant() {
-        return instant;
+    public long getTime() {
+        return time;
     }
 
     /**
@@ -4,6 +4,10 @@ import moose.Memo;
 
 import java.util.EventListener;
 
+/**
+ * Listener for the Moose events (called on the EDT)
+ * The Memo is reused after the call; copy the values that are needed later.
+ */
 public interface MooseListener extends EventListener {
     void mooseClicked(Memo mem);
 
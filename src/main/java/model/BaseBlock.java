@@ -1,6 +1,7 @@
 package model;
 
 import com.google.gson.Gson;
+import control.Session;
 import enums.Task;
 import org.tinylog.Logger;
 import org.tinylog.TaggedLogger;
@@ -10,6 +11,7 @@ import ui.PanTaskPanel;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Random;
 
 import static ui.ExperimentFrame.*;
 
@@ -18,24 +20,30 @@ public class BaseBlock {
 
     public int blockNum;
     public final ArrayList<BaseTrial> trials = new ArrayList<>();
+    private final Random random; // Of the Session
 
     /**
      * Constructor
+     * @param session Session (settings and random numbers)
      * @param blkNum Block number
      * @param task Which task? (ZOOM-IN, ZOOM-OUT, PAN)
      * @param repetition Number of repetitions (in each block)
      */
-    public BaseBlock(int blkNum, Task task, int repetition) {
+    public BaseBlock(Session session, int blkNum, Task task, int repetition) {
         blockNum = blkNum;
+        random = session.random();
+
+        final int MAX_NOTCHES = session.getMaxNotches();
+        final int NOTCHES_IN_ELEMENT = session.getNotchesInElement();
 
         switch (task) {
             case ZOOM_IN -> {
 //                int START_LEVEL = 1; // Outer ring
                 for (int j = 0; j < repetition; j++) {
-                    for (int dist : TARGET_DISTS) {
+                    for (int dist : session.getTargetDists()) {
                         conLog.debug("Dist = {}", dist);
                         // Choose the target randomly (from 1 to total n levels - dist - tol)
-                        final int noelMult = Utils.randMulInt(
+                        final int noelMult = Utils.randMulInt(random,
                                 dist + TARGET_TOLERANCE,
                                 MAX_NOTCHES - TARGET_TOLERANCE,
                                 NOTCHES_IN_ELEMENT);
@@ -47,7 +55,7 @@ public class BaseBlock {
                                 noelMult, targetLevel, targetLevel - dist);
                     }
 
-                    Collections.shuffle(trials);
+                    Collections.shuffle(trials, random);
 
                     for (int t = 0; t < trials.size(); t++) {
                         trials.get(t).blockNum = blkNum;
@@ -60,11 +68,11 @@ public class BaseBlock {
             case ZOOM_OUT -> {
 
 //                int START_LEVEL = ZoomTaskPanel.ZOOM_N_ELEMENTS / 2 + 1; // Central circle
-                for (int dist : TARGET_DISTS) {
+                for (int dist : session.getTargetDists()) {
                     for (int j = 0; j < repetition; j++) {
                         conLog.debug("Dist = {}", dist);
                         // Choose the target randomly (from 1 to total n levels - dist - tol)
-                        final int noelMult = Utils.randMulInt(
+                        final int noelMult = Utils.randMulInt(random,
                                 TARGET_TOLERANCE,
                                 MAX_NOTCHES - TARGET_TOLERANCE - dist,
                                 NOTCHES_IN_ELEMENT);
@@ -77,7 +85,7 @@ public class BaseBlock {
                     }
                 }
 
-                Collections.shuffle(trials);
+                Collections.shuffle(trials, random);
 
                 for (int t = 0; t < trials.size(); t++) {
                     trials.get(t).blockNum = blkNum;
@@ -90,14 +98,14 @@ public class BaseBlock {
             case PAN -> {
                 // For each repetition: randomly choose the rotation for the short curve. Next two will be +120 and +240
                 for (int i = 0; i < NUM_PAN_REPS; i++) {
-                    int rotation = Utils.randInt(0, 360);
+                    int rotation = Utils.randInt(random, 0, 360);
                     trials.add(new PanTrial(1, rotation));
                     trials.add(new PanTrial(2, (rotation + 120) % 360)); // Go over the next rotation
                     trials.add(new PanTrial(3, (rotation + 240) % 360)); // Go over the next rotation
                 }
 
                 // Shuffle the trials
-                Collections.shuffle(trials);
+                Collections.shuffle(trials, random);
             }
         }
 
@@ -197,8 +205,10 @@ public class BaseBlock {
      */
     public void reInsertTrial(int trNum) {
         BaseTrial trial = trials.get(trNum - 1);
-        int randomIndex = Utils.randInt(trNum, trials.size());
-        trials.add(randomIndex, cloneTrial(trial));
+        BaseTrial retry = cloneTrial(trial);
+        retry.retries++;
+        int randomIndex = Utils.randInt(random, trNum, trials.size());
+        trials.add(randomIndex, retry);
 
         // Refesh the nums
         for (int i = 0; i < trials.size(); i++) {
@@ -0,0 +1,106 @@
+package moose;
+
+import tool.LatencyHistogram;
+import tool.SpscRing;
+
+/**
+ * One lane of the Server -> EDT handoff, with its depth and wait statistics
+ * offer() is only called by the Server thread, poll() only by the EDT; the getters can be called by any thread.
+ */
+public class Lane {
+    private final String name;
+    private final SpscRing<Memo> ring;
+
+    private final LatencyHistogram waitTime = new LatencyHistogram(); // Offered -> polled (EDT)
+    private volatile long nOffered; // Server thread
+    private volatile long nDropped; // Lane was full (Server thread)
+    private volatile long depthSum; // Depths seen by the offers (Server thread)
+    private volatile int maxDepth;
+
+    /**
+     * Constructor
+     * @param name Name (for the logs)
+     * @param capacity Max. number of waiting Memos
+     */
+    Lane(String name, int capacity) {
+        this.name = name;
+        ring = new SpscRing<>(capacity);
+    }
+
+    /**
+     * Add a Memo (Server thread only)
+     * @param memo Memo
+     * @return False if the lane is full (the Memo is not taken)
+     */
+    boolean offer(Memo memo) {
+        final int depth = ring.size();
+        depthSum += depth;
+        if (depth > maxDepth) maxDepth = depth;
+        nOffered++;
+
+        memo.laneTime = System.nanoTime();
+        if (ring.offer(memo)) return true;
+
+        nDropped++;
+        return false;
+    }
+
+    /**
+     * Take the oldest Memo (EDT only)
+     * @return Memo or null if empty
+     */
+    Memo poll() {
+        final Memo memo = ring.poll();
+        if (memo != null) waitTime.record(System.nanoTime() - memo.laneTime);
+        return memo;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the number of Memos waiting
+     * @return Depth
+     */
+    public int getDepth() {
+        return ring.size();
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Get the mean number of Memos found waiting by a new one
+     * @return Mean depth
+     */
+    public double getMeanDepth() {
+        final long n = nOffered;
+        return (n == 0) ? 0 : (double) depthSum / n;
+    }
+
+    /**
+     * Get the times the Memos waited for the EDT
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getWaitTime() {
+        return waitTime;
+    }
+
+    public long getOfferedCount() {
+        return nOffered;
+    }
+
+    public long getDroppedCount() {
+        return nDropped;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": offered=" + nOffered +
+                ", dropped=" + nDropped +
+                ", depth(mean/max)=" + String.format("%.1f", getMeanDepth()) + "/" + maxDepth +
+                ", wait=[" + waitTime + "]";
+    }
+}
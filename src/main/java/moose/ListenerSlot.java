@@ -0,0 +1,26 @@
+package moose;
+
+import listener.MooseListener;
+import tool.LatencyHistogram;
+
+/**
+ * A registered MooseListener with its call statistics (updated on the EDT)
+ */
+class ListenerSlot {
+    final MooseListener listener;
+    final LatencyHistogram callTime = new LatencyHistogram();
+    long nCalls;
+    long nSlowCalls;
+
+    ListenerSlot(MooseListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public String toString() {
+        return listener.getClass().getSimpleName() +
+                ": calls=" + nCalls +
+                ", slow=" + nSlowCalls +
+                ", time=[" + callTime + "]";
+    }
+}
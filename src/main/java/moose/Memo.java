@@ -2,23 +2,44 @@ package moose;
 
 import tool.Constants.*;
 
+import java.nio.ByteBuffer;
+
 @SuppressWarnings("unused")
-public class Memo {
+public final class Memo {
+    //-- Binary frame: marker, action, mode, value1 (float32), value2 (float32), timestamp (int64)
+    public static final byte FRAME_MARKER = (byte) 0xB0; // Never the first byte of a text line
+    public static final int FRAME_SIZE = 1 + 1 + 1 + 4 + 4 + 8;
+
     private String action;
     private String mode;
-    private String value1;
+    private byte actionCode; // MemoCodes (UNKNOWN if not in the table)
+    private byte modeCode;
+    private String value1; // null = not formatted yet (numeric)
     private String value2;
     private String debug;
 
+    // Values parsed once (numeric1/2 = the value is a number)
+    private boolean numeric1;
+    private boolean numeric2;
+    private double v1;
+    private double v2;
+    private long timestamp; // Device timestamp in µs (0 = not known)
+
+    private int deviceId; // Set by the Server on receipt (Moose.ANY_DEVICE = not known)
+    long laneTime; // System.nanoTime() of entering a Moose lane
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53; // Larger ones aren't exact in a double
+    private static final double[] POW10 = new double[23]; // 10^0 - 10^22 (all exact in a double)
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10;
+    }
+
     /**
      * Basic constructor
      */
     public Memo() {
-        this.action = "";
-        this.mode = "";
-        this.value1 = "";
-        this.value2 = "";
-        this.debug = "";
+        clear();
     }
 
     /**
@@ -28,10 +49,44 @@ public class Memo {
      * @param values list of values (currently up to two is supported)
      */
     public Memo(String act, String md, Object... values) {
+        this();
         action = act;
         mode = md;
-        if (values.length == 1) value1 = String.valueOf(values[0]);
-        if (values.length == 2) value2 = String.valueOf(values[1]);
+        actionCode = MemoCodes.actionCode(act);
+        modeCode = MemoCodes.modeCode(md);
+        if (values.length >= 1) setValue1(values[0]);
+        if (values.length >= 2) setValue2(values[1]);
+    }
+
+    /**
+     * Reset to an empty Memo (for reuse)
+     */
+    public void clear() {
+        action = "";
+        mode = "";
+        actionCode = MemoCodes.UNKNOWN;
+        modeCode = MemoCodes.UNKNOWN;
+        value1 = "";
+        value2 = "";
+        debug = "";
+        numeric1 = false;
+        numeric2 = false;
+        v1 = 0;
+        v2 = 0;
+        timestamp = 0;
+        deviceId = 0;
+    }
+
+    private void setValue1(Object value) {
+        numeric1 = value instanceof Number;
+        v1 = numeric1 ? ((Number) value).doubleValue() : 0;
+        value1 = numeric1 ? null : String.valueOf(value);
+    }
+
+    private void setValue2(Object value) {
+        numeric2 = value instanceof Number;
+        v2 = numeric2 ? ((Number) value).doubleValue() : 0;
+        value2 = numeric2 ? null : String.valueOf(value);
     }
 
     /**
@@ -52,16 +107,36 @@ public class Memo {
         return mode;
     }
 
+    /**
+     * Get the code of the action
+     *
+     * @return Byte code (MemoCodes; UNKNOWN if not known)
+     */
+    public byte getActionCode() {
+        return actionCode;
+    }
+
+    /**
+     * Get the code of the mode
+     *
+     * @return Byte code (MemoCodes; UNKNOWN if not known)
+     */
+    public byte getModeCode() {
+        return modeCode;
+    }
+
     /**
      * Get the first value
      *
      * @return String first value
      */
     public String getValue1() {
+        if (value1 == null) value1 = format(v1);
         return value1;
     }
 
     public float getV1Float() {
+        if (numeric1) return (float) v1;
         return Float.parseFloat(value1);
     }
 
@@ -71,33 +146,81 @@ public class Memo {
      * @return String second value
      */
     public String getValue2() {
+        if (value2 == null) value2 = format(v2);
         return value2;
     }
 
+    /**
+     * Convert and return the second value
+     *
+     * @return Float second value
+     */
+    public float getV2Float() {
+        if (numeric2) return (float) v2;
+        return Float.parseFloat(value2);
+    }
+
+    /**
+     * Convert and return the second value (full precision, e.g., for device times)
+     *
+     * @return Double second value (0 if not a number)
+     */
+    public double getV2Double() {
+        return numeric2 ? v2 : 0;
+    }
+
     /**
      * Convert and return the first value
      *
-     * @return Int first value
+     * @return Int first value (0 if not a number)
      */
     public int getV1Int() {
-        try {
-            return (int) Double.parseDouble(value1);
-        } catch (NumberFormatException e) {
-            return 0;
-        }
+        return numeric1 ? (int) v1 : 0;
     }
 
     /**
      * Convert and return the second value
      *
-     * @return Int second Value
+     * @return Int second Value (0 if not a number)
      */
     public int getV2Int() {
-        try {
-            return (int) Double.parseDouble(value2);
-        } catch (NumberFormatException e) {
-            return 0;
-        }
+        return numeric2 ? (int) v2 : 0;
+    }
+
+    /**
+     * Get the device timestamp (only sent in binary frames)
+     *
+     * @return Timestamp (0 if not known)
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Set the device timestamp (sent only in binary frames)
+     *
+     * @param time Timestamp in µs
+     */
+    public void setTimestamp(long time) {
+        timestamp = time;
+    }
+
+    /**
+     * Get the id of the device that sent this Memo
+     *
+     * @return Device id
+     */
+    public int getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Set the id of the device that sent this Memo
+     *
+     * @param id Device id
+     */
+    public void setDeviceId(int id) {
+        deviceId = id;
     }
 
     /**
@@ -109,6 +232,34 @@ public class Memo {
         return debug;
     }
 
+    /**
+     * Can another Memo be merged into this one? (consecutive deltas of the same kind and device)
+     *
+     * @param other Memo
+     * @return True if both are SCROLL or ZOOM deltas of the same mode and device
+     */
+    public boolean canMerge(Memo other) {
+        return (actionCode == MemoCodes.SCROLL || (actionCode == MemoCodes.ZOOM && modeCode == MemoCodes.ZOOM_MODE))
+                && actionCode == other.actionCode
+                && modeCode == other.modeCode
+                && deviceId == other.deviceId;
+    }
+
+    /**
+     * Add the values of another delta to this one (the later timestamp is kept)
+     *
+     * @param other Memo (a later delta, see canMerge)
+     */
+    public void merge(Memo other) {
+        v1 = (numeric1 ? v1 : 0) + (other.numeric1 ? other.v1 : 0);
+        v2 = (numeric2 ? v2 : 0) + (other.numeric2 ? other.v2 : 0);
+        numeric1 = true;
+        numeric2 = true;
+        value1 = null;
+        value2 = null;
+        timestamp = other.timestamp;
+    }
+
     /**
      * Get the Memo from String
      *
@@ -116,23 +267,307 @@ public class Memo {
      * @return Memo
      */
     public static Memo valueOf(String msg) {
-        Memo result = new Memo();
-        if (msg != null) {
-            String[] parts = msg.split(STRINGS.SP);
-
-            if (parts.length >= 4 && parts.length <= 5) {
-                result.action = parts[0];
-                result.mode = parts[1];
-                result.value1 = parts[2];
-                result.value2 = parts[3];
-
-                if (parts.length == 5) {
-                    result.debug = parts[4];
-                }
+        final Memo result = new Memo();
+        if (msg != null) result.decode(msg);
+        return result;
+    }
+
+    /**
+     * Get the Memo from a binary frame
+     *
+     * @param frame ByteBuffer positioned after the marker (FRAME_SIZE - 1 bytes remaining)
+     * @return Memo
+     */
+    public static Memo fromFrame(ByteBuffer frame) {
+        return new Memo().decodeFrame(frame);
+    }
+
+    /**
+     * Set this Memo from a text line (action,mode,value1,value2[,debug])
+     * Known actions/modes and numeric values are taken without creating Strings.
+     *
+     * @param line CharSequence (not kept after the call)
+     * @return This Memo (empty if the line is not valid)
+     */
+    public Memo decode(CharSequence line) {
+        clear();
+
+        int from = 0;
+        int end = line.length();
+        while (from < end && line.charAt(from) <= ' ') from++;
+        while (end > from && line.charAt(end - 1) <= ' ') end--;
+
+        int nSeparators = 0;
+        for (int i = from; i < end; i++) {
+            if (line.charAt(i) == STRINGS.SP.charAt(0)) nSeparators++;
+        }
+        if (nSeparators < 3 || nSeparators > 4) return this;
+
+        int to = nextSeparator(line, from, end);
+        actionCode = MemoCodes.actionCode(line, from, to);
+        action = (actionCode != MemoCodes.UNKNOWN) ? MemoCodes.action(actionCode) : token(line, from, to);
+
+        from = to + 1;
+        to = nextSeparator(line, from, end);
+        modeCode = MemoCodes.modeCode(line, from, to);
+        mode = (modeCode != MemoCodes.UNKNOWN) ? MemoCodes.mode(modeCode) : token(line, from, to);
+
+        from = to + 1;
+        to = nextSeparator(line, from, end);
+        v1 = parseNumber(line, from, to);
+        numeric1 = !Double.isNaN(v1);
+        value1 = numeric1 ? null : token(line, from, to);
+        if (!numeric1) v1 = 0;
+
+        from = to + 1;
+        to = nextSeparator(line, from, end);
+        v2 = parseNumber(line, from, to);
+        numeric2 = !Double.isNaN(v2);
+        value2 = numeric2 ? null : token(line, from, to);
+        if (!numeric2) v2 = 0;
+
+        if (to < end) debug = token(line, to + 1, end);
+
+        return this;
+    }
+
+    /**
+     * Set this Memo from a binary frame
+     *
+     * @param frame ByteBuffer positioned after the marker (FRAME_SIZE - 1 bytes remaining)
+     * @return This Memo
+     */
+    public Memo decodeFrame(ByteBuffer frame) {
+        clear();
+        actionCode = MemoCodes.code(frame.get(), MemoCodes.N_ACTIONS);
+        modeCode = MemoCodes.code(frame.get(), MemoCodes.N_MODES);
+        action = MemoCodes.action(actionCode);
+        mode = MemoCodes.mode(modeCode);
+        numeric1 = true;
+        numeric2 = true;
+        v1 = frame.getFloat();
+        v2 = frame.getFloat();
+        timestamp = frame.getLong();
+        value1 = null; // Created only if asked
+        value2 = null;
+
+        return this;
+    }
+
+    /**
+     * Can this Memo be sent as a binary frame? (action and mode have codes)
+     *
+     * @return True if it can be framed
+     */
+    public boolean isFramable() {
+        return actionCode != MemoCodes.UNKNOWN && modeCode != MemoCodes.UNKNOWN;
+    }
+
+    /**
+     * Write the binary frame of this Memo (non-numeric values are written as 0)
+     *
+     * @param buffer ByteBuffer with at least FRAME_SIZE bytes remaining
+     */
+    public void writeFrame(ByteBuffer buffer) {
+        buffer.put(FRAME_MARKER);
+        buffer.put(actionCode);
+        buffer.put(modeCode);
+        buffer.putFloat(valueFloat(numeric1, v1, value1));
+        buffer.putFloat(valueFloat(numeric2, v2, value2));
+        buffer.putLong(timestamp);
+    }
+
+    /**
+     * Write the text line of this Memo (with the newline) without creating Strings
+     * Same as toString() + "\n" in ASCII (non-integer numbers are still formatted as Strings).
+     *
+     * @param buffer ByteBuffer with at least getTextLength() bytes remaining
+     */
+    public void writeText(ByteBuffer buffer) {
+        final byte sep = (byte) STRINGS.SP.charAt(0);
+        putAscii(buffer, action);
+        buffer.put(sep);
+        putAscii(buffer, mode);
+        buffer.put(sep);
+        putValue(buffer, numeric1, v1, value1);
+        buffer.put(sep);
+        putValue(buffer, numeric2, v2, value2);
+        buffer.put((byte) '\n');
+    }
+
+    /**
+     * Get the length of the text line (with the newline)
+     *
+     * @return Length in bytes
+     */
+    public int getTextLength() {
+        return action.length() + mode.length() + valueLength(numeric1, v1, value1)
+                + valueLength(numeric2, v2, value2) + 3 * STRINGS.SP.length() + 1;
+    }
+
+    /**
+     * Has this Memo the same action, mode and values as another? (timestamp and device are not compared)
+     *
+     * @param other Memo
+     * @return True if they'd be sent the same
+     */
+    public boolean hasSameContent(Memo other) {
+        return other != null
+                && action.equals(other.action) && mode.equals(other.mode)
+                && sameValue(numeric1, v1, value1, other.numeric1, other.v1, other.value1)
+                && sameValue(numeric2, v2, value2, other.numeric2, other.v2, other.value2);
+    }
+
+    private static boolean sameValue(boolean numeric, double v, String value,
+                                     boolean otherNumeric, double otherV, String otherValue) {
+        if (numeric != otherNumeric) return false;
+        return numeric ? Double.compare(v, otherV) == 0 : value.equals(otherValue);
+    }
+
+    private static boolean isPlainInteger(double v) {
+        return v == Math.rint(v) && Math.abs(v) <= 0x1p53;
+    }
+
+    private static void putValue(ByteBuffer buffer, boolean numeric, double v, String value) {
+        if (!numeric) putAscii(buffer, value);
+        else if (isPlainInteger(v)) putDigits(buffer, (long) v);
+        else putAscii(buffer, format(v));
+    }
+
+    private static int valueLength(boolean numeric, double v, String value) {
+        if (!numeric) return value.length();
+        if (isPlainInteger(v)) return digitCount((long) v);
+        return format(v).length();
+    }
+
+    private static void putAscii(ByteBuffer buffer, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            buffer.put((c < 0x80) ? (byte) c : (byte) '?');
+        }
+    }
+
+    private static void putDigits(ByteBuffer buffer, long n) {
+        if (n < 0) buffer.put((byte) '-');
+        final int nDigits = digitCount(Math.abs(n));
+        final int end = buffer.position() + nDigits;
+        long rest = Math.abs(n);
+        for (int i = end - 1; i >= end - nDigits; i--) {
+            buffer.put(i, (byte) ('0' + rest % 10));
+            rest /= 10;
+        }
+        buffer.position(end);
+    }
+
+    private static int digitCount(long n) {
+        int count = (n < 0) ? 2 : 1; // With the sign
+        long rest = Math.abs(n);
+        while (rest >= 10) {
+            rest /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    private static float valueFloat(boolean numeric, double v, String value) {
+        if (numeric) return (float) v;
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException | NullPointerException e) {
+            return 0f;
+        }
+    }
+
+    private static int nextSeparator(CharSequence s, int from, int end) {
+        final char sep = STRINGS.SP.charAt(0);
+        int i = from;
+        while (i < end && s.charAt(i) != sep) i++;
+        return i;
+    }
+
+    private static String token(CharSequence s, int from, int to) {
+        return (from >= to) ? "" : s.subSequence(from, to).toString();
+    }
+
+    /**
+     * Parse a number as Double.parseDouble does, without creating objects for plain decimals
+     * Fast path: [sign] digits [. digits] whose digits fit an exact double (< 2^53), at most 22 decimals;
+     * exact mantissa / exact power of 10 is correctly rounded, so the result equals Double.parseDouble.
+     * Anything else that may be a number (exponents, more digits, NaN/Infinity, f/d suffixes) goes to it.
+     * @return The number or NaN if not valid
+     */
+    private static double parseNumber(CharSequence s, int from, int to) {
+        while (from < to && s.charAt(from) <= ' ') from++;
+        while (to > from && s.charAt(to - 1) <= ' ') to--;
+
+        int i = from;
+        boolean negative = false;
+        if (i < to && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            i++;
+        }
+        final int start = i;
+
+        long mantissa = 0;
+        int nDecimals = 0;
+        int nDigits = 0;
+        boolean dot = false;
+        for (; i < to; i++) {
+            final char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if (mantissa > MAX_EXACT_MANTISSA) return parseDouble(s, from, to);
+                if (dot) nDecimals++;
+                nDigits++;
+            } else if (c == '.' && !dot) {
+                dot = true;
+            } else {
+                return mayBeNumber(s, start, to) ? parseDouble(s, from, to) : Double.NaN;
             }
         }
+        if (nDigits == 0) return Double.NaN;
+        if (nDecimals >= POW10.length) return parseDouble(s, from, to);
 
-        return result;
+        final double result = (nDecimals == 0) ? mantissa : mantissa / POW10[nDecimals];
+        return negative ? -result : result;
+    }
+
+    /**
+     * Could Double.parseDouble take it? (starts with a digit or '.', or is NaN/Infinity)
+     * Words (e.g., encodings) are rejected here, without the cost of an exception.
+     */
+    private static boolean mayBeNumber(CharSequence s, int from, int to) {
+        final char c = s.charAt(from);
+        return (c >= '0' && c <= '9') || c == '.' || isWord(s, from, to, "NaN") || isWord(s, from, to, "Infinity");
+    }
+
+    private static boolean isWord(CharSequence s, int from, int to, String word) {
+        if (to - from != word.length()) return false;
+        for (int i = 0; i < word.length(); i++) {
+            if (s.charAt(from + i) != word.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Slow path of parseNumber (creates a String)
+     * @return The number or NaN if not valid
+     */
+    private static double parseDouble(CharSequence s, int from, int to) {
+        try {
+            return Double.parseDouble(s.subSequence(from, to).toString());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Format a numeric value (integers without a fraction, floats as floats)
+     */
+    private static String format(double v) {
+        if (isPlainInteger(v)) return Long.toString((long) v);
+        if ((float) v == v) return Float.toString((float) v);
+        return Double.toString(v);
     }
 
     /**
@@ -142,6 +577,6 @@ public class Memo {
      */
     @Override
     public String toString() {
-        return action + STRINGS.SP + mode + STRINGS.SP + value1 + STRINGS.SP + value2;
+        return action + STRINGS.SP + mode + STRINGS.SP + getValue1() + STRINGS.SP + getValue2();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,125 @@
+package moose;
+
+import tool.Constants.*;
+
+/**
+ * Byte codes for the actions and modes of a Memo (used in the binary frames)
+ * Code = index in the arrays (0 = unknown)
+ */
+public class MemoCodes {
+    public static final byte UNKNOWN = 0;
+
+    //-- Actions
+    public static final byte CONNECTION = 1;
+    public static final byte CLICK = 2;
+    public static final byte SCROLL = 3;
+    public static final byte ZOOM = 4;
+    public static final byte CONFIG = 5;
+
+    //-- Modes
+    public static final byte KEEP_ALIVE = 1;
+    public static final byte END = 2;
+    public static final byte SINGLE = 3;
+    public static final byte ZOOM_MODE = 4;
+    public static final byte ZOOM_START = 5;
+    public static final byte ENCODING = 6;
+    public static final byte PING = 7;
+
+    private static final String[] ACTIONS = {
+            "", STRINGS.CONNECTION, STRINGS.CLICK, STRINGS.SCROLL, STRINGS.ZOOM, STRINGS.CONFIG};
+    private static final String[] MODES = {
+            "", STRINGS.KEEP_ALIVE, STRINGS.END, STRINGS.SINGLE, STRINGS.ZOOM, STRINGS.ZOOM_START, STRINGS.ENCODING,
+            STRINGS.PING};
+
+    public static final int N_ACTIONS = ACTIONS.length; // Codes are 0 .. N_ACTIONS - 1
+    public static final int N_MODES = MODES.length;
+
+    /**
+     * Check a received code
+     * @param code Code (any byte)
+     * @param nCodes Number of codes (N_ACTIONS or N_MODES)
+     * @return The code or UNKNOWN if out of range
+     */
+    public static byte code(byte code, int nCodes) {
+        return (code > 0 && code < nCodes) ? code : UNKNOWN;
+    }
+
+    /**
+     * Get the code of an action
+     * @param action String action (from STRINGS)
+     * @return Code (UNKNOWN if not found)
+     */
+    public static byte actionCode(String action) {
+        return indexOf(ACTIONS, action);
+    }
+
+    /**
+     * Get the code of a mode
+     * @param mode String mode (from STRINGS)
+     * @return Code (UNKNOWN if not found)
+     */
+    public static byte modeCode(String mode) {
+        return indexOf(MODES, mode);
+    }
+
+    /**
+     * Get the code of an action inside a text (without creating a String)
+     * @param s CharSequence
+     * @param from Start index (inclusive)
+     * @param to End index (exclusive)
+     * @return Code (UNKNOWN if not found)
+     */
+    public static byte actionCode(CharSequence s, int from, int to) {
+        return indexOf(ACTIONS, s, from, to);
+    }
+
+    /**
+     * Get the code of a mode inside a text (without creating a String)
+     * @param s CharSequence
+     * @param from Start index (inclusive)
+     * @param to End index (exclusive)
+     * @return Code (UNKNOWN if not found)
+     */
+    public static byte modeCode(CharSequence s, int from, int to) {
+        return indexOf(MODES, s, from, to);
+    }
+
+    /**
+     * Get the action from the code
+     * @param code Action code
+     * @return String action ("" if not known)
+     */
+    public static String action(int code) {
+        return (code > 0 && code < ACTIONS.length) ? ACTIONS[code] : "";
+    }
+
+    /**
+     * Get the mode from the code
+     * @param code Mode code
+     * @return String mode ("" if not known)
+     */
+    public static String mode(int code) {
+        return (code > 0 && code < MODES.length) ? MODES[code] : "";
+    }
+
+    private static byte indexOf(String[] table, String value) {
+        if (value == null) return UNKNOWN;
+        for (int i = 1; i < table.length; i++) {
+            if (table[i].equals(value)) return (byte) i;
+        }
+        return UNKNOWN;
+    }
+
+    private static byte indexOf(String[] table, CharSequence s, int from, int to) {
+        final int len = to - from;
+        for (int i = 1; i < table.length; i++) {
+            final String value = table[i];
+            if (value.length() != len) continue;
+
+            int k = 0;
+            while (k < len && value.charAt(k) == s.charAt(from + k)) k++;
+            if (k == len) return (byte) i;
+        }
+        return UNKNOWN;
+    }
+}
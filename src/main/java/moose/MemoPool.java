@@ -0,0 +1,51 @@
+package moose;
+
+import tool.SpscRing;
+
+/**
+ * Free Memos kept for reuse, so steady-state input creates no garbage
+ * Memos are taken by the Server thread and given back by the EDT after dispatch (one producer, one consumer).
+ */
+class MemoPool {
+    private final SpscRing<Memo> free;
+    private volatile long nCreated; // Pool was empty (Server thread)
+
+    /**
+     * Constructor
+     * @param capacity Max. number of free Memos kept
+     */
+    MemoPool(int capacity) {
+        free = new SpscRing<>(capacity);
+    }
+
+    /**
+     * Take a free Memo or create one (Server thread only)
+     * @return Empty Memo
+     */
+    Memo obtain() {
+        final Memo memo = free.poll();
+        if (memo == null) {
+            nCreated++;
+            return new Memo();
+        }
+
+        memo.clear();
+        return memo;
+    }
+
+    /**
+     * Give back a Memo that is no longer used (EDT only)
+     * @param memo Memo (left to the GC if the pool is full)
+     */
+    void release(Memo memo) {
+        free.offer(memo);
+    }
+
+    long getCreatedCount() {
+        return nCreated;
+    }
+
+    int getFreeCount() {
+        return free.size();
+    }
+}
@@ -1,61 +1,435 @@
 package moose;
 
+import enums.MergePolicy;
 import listener.MooseListener;
-import static tool.Constants.*;
+import org.tinylog.Logger;
+import org.tinylog.TaggedLogger;
+import tool.LatencyHistogram;
 
-import javax.swing.event.EventListenerList;
+import javax.swing.*;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @SuppressWarnings("unused")
 public class Moose {
-    private final EventListenerList mooseListener;
+    private final TaggedLogger conLog = Logger.tag(getClass().getSimpleName());
+
+    public static final int ANY_DEVICE = 0; // Listen to all the devices
+
+    private static final int QUEUE_CAPACITY = 8192; // Memos waiting for the EDT (continuous lane)
+    private static final int DISCRETE_CAPACITY = 1024; // CLICK etc. waiting for the EDT
+    private static final long SLOW_CALL_NS = 16_000_000; // A listener call longer than a frame (60 Hz)
+    private static final long DEFAULT_LAG_BUDGET_NS = 8_000_000; // EDT lag before deltas are merged upstream
+    private static final int MAX_HELD = 8; // Merged deltas held at once (device x kind)
+    private static final int MAX_SPARE = 64; // Merged-away/dropped/handled Memos kept for obtainMemo() (Server thread)
+
+    // Handoff from the Server thread to the EDT (one drain task at a time)
+    // Discrete events (CLICK) have their own lane, so they never wait behind a backlog of deltas
+    private final Lane discreteLane = new Lane("Discrete", DISCRETE_CAPACITY);
+    private final Lane continuousLane = new Lane("Continuous", QUEUE_CAPACITY); // SCROLL/ZOOM (merged)
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final Runnable drainTask = this::drain;
+    private final MemoPool pool = new MemoPool(QUEUE_CAPACITY + DISCRETE_CAPACITY); // Back to the Server thread
+    private volatile long nReceived; // Memos received (Server thread)
+    private volatile long nMerged; // Memos merged into the previous one (EDT)
+    private final Set<Integer> unmergedDevices = ConcurrentHashMap.newKeySet(); // MergePolicy.EACH
+
+    // Adaptive merging (Server thread): while the EDT lags, deltas are summed before the lane,
+    // so the EDT gets at most one delta per device and kind for each drain, whatever the input rate
+    private volatile long lagBudget = DEFAULT_LAG_BUDGET_NS;
+    private volatile long drainScheduleTime; // System.nanoTime() of scheduling the pending drain
+    private final LatencyHistogram edtLag = new LatencyHistogram(); // Drain scheduled -> started (EDT)
+    private final Memo[] held = new Memo[MAX_HELD];
+    private int nHeld;
+    private final ArrayDeque<Memo> spare = new ArrayDeque<>(MAX_SPARE);
+    private volatile long nDeltas; // Deltas received (Server thread)
+    private volatile long nHeldMerged; // Deltas merged into a held one
+
+    // Listeners (copy-on-write arrays: changed under the lock, read by the EDT without it)
+    private static final ListenerSlot[] NO_LISTENERS = new ListenerSlot[0];
+    private volatile ListenerSlot[] mooseListener = NO_LISTENERS; // Listeners for all devices
+    private final Map<Integer, ListenerSlot[]> deviceListeners = new ConcurrentHashMap<>(); // Key: device id
+    private final Map<MooseListener, ListenerSlot> slots = new IdentityHashMap<>(); // One per listener (stats)
+
+    //-- Calling one listener method
+    private interface Handler {
+        void handle(MooseListener l, Memo mem);
+    }
+
+    // Handler of each [action code][mode code] (null = not delivered)
+    private static final Handler[][] DISPATCH_TABLE = new Handler[MemoCodes.N_ACTIONS][MemoCodes.N_MODES];
+    static {
+        Arrays.fill(DISPATCH_TABLE[MemoCodes.CLICK], (Handler) MooseListener::mooseClicked);
+        Arrays.fill(DISPATCH_TABLE[MemoCodes.SCROLL], (Handler) MooseListener::mooseScrolled);
+        DISPATCH_TABLE[MemoCodes.ZOOM][MemoCodes.ZOOM_MODE] = MooseListener::mooseWheelMoved;
+//        DISPATCH_TABLE[MemoCodes.ZOOM][MemoCodes.ZOOM_START] = MooseListener::mooseZoomStart;
+    }
 
     public Moose() {
-        this.mooseListener = new EventListenerList();
     }
 
     public synchronized void addMooseListener(MooseListener l) {
+        addMooseListener(ANY_DEVICE, l);
+    }
+
+    public synchronized void removeMooseListener(MooseListener l) {
         if (l == null) {
             return;
         }
-        mooseListener.add(MooseListener.class, l);
+        final ListenerSlot slot = slots.get(l);
+        if (slot == null) {
+            return;
+        }
+
+        mooseListener = without(mooseListener, slot);
+        for (Map.Entry<Integer, ListenerSlot[]> entry : deviceListeners.entrySet()) {
+            entry.setValue(without(entry.getValue(), slot));
+        }
+        slots.remove(l);
     }
 
-    public synchronized void removeMooseListener(MooseListener l) {
+    /**
+     * Add a listener for the events of one device
+     * @param deviceId Device id (ANY_DEVICE for all)
+     * @param l MooseListener
+     */
+    public synchronized void addMooseListener(int deviceId, MooseListener l) {
         if (l == null) {
             return;
         }
-        mooseListener.remove(MooseListener.class, l);
+        final ListenerSlot slot = slots.computeIfAbsent(l, ListenerSlot::new);
+        if (deviceId == ANY_DEVICE) {
+            mooseListener = with(mooseListener, slot);
+        } else {
+            deviceListeners.put(deviceId, with(deviceListeners.getOrDefault(deviceId, NO_LISTENERS), slot));
+        }
+    }
+
+    private static ListenerSlot[] with(ListenerSlot[] list, ListenerSlot slot) {
+        final ListenerSlot[] result = Arrays.copyOf(list, list.length + 1);
+        result[list.length] = slot;
+        return result;
+    }
+
+    private static ListenerSlot[] without(ListenerSlot[] list, ListenerSlot slot) {
+        return Arrays.stream(list).filter(s -> s != slot).toArray(ListenerSlot[]::new);
+    }
+
+    /**
+     * Set whether the deltas of a device are merged (picked in the device handshake)
+     * @param deviceId Device id
+     * @param policy MergePolicy
+     */
+    public void setMergePolicy(int deviceId, MergePolicy policy) {
+        if (policy == MergePolicy.EACH) unmergedDevices.add(deviceId);
+        else unmergedDevices.remove(deviceId);
+    }
+
+    /**
+     * Get an empty Memo to decode into (Server thread only)
+     * The Memo goes back to the pool after it is dispatched, so listeners must not keep it.
+     * @return Memo
+     */
+    public Memo obtainMemo() {
+        final Memo memo = spare.poll();
+        if (memo == null) return pool.obtain();
+
+        memo.clear();
+        return memo;
+    }
+
+    /**
+     * Give back a Memo that isn't passed on (Server thread only; e.g., CONNECTION messages, dropped ones)
+     * The pool is filled by the EDT, so these are kept for obtainMemo() here (or left to the GC).
+     * @param memo Memo (not used after)
+     */
+    public void recycleMemo(Memo memo) {
+        if (spare.size() < MAX_SPARE) spare.push(memo);
     }
 
+    /**
+     * Pass a Memo to the listeners (on the EDT)
+     * Called from the Server thread (the only producer); never blocks.
+     * @param mem Memo
+     */
     public void processMooseEvent(Memo mem) {
-        MooseListener[] listeners = mooseListener.getListeners(MooseListener.class);
-        if (listeners.length > 0) {
-            switch (mem.getAction()) {
-                case STRINGS.CLICK -> {
-                    for (MooseListener l : listeners) {
-                        l.mooseClicked(mem);
-                    }
-                }
-                case STRINGS.SCROLL -> {
-                    for (MooseListener l : listeners) {
-                        l.mooseScrolled(mem);
-                    }
-                }
-                case STRINGS.ZOOM -> {
-                    switch (mem.getMode()) {
-                        case STRINGS.ZOOM -> {
-                            for (MooseListener l : listeners) {
-                                l.mooseWheelMoved(mem);
-                            }
-                        }
-//                        case STRINGS.ZOOM_START -> {
-//                            for (MooseListener l : listeners) {
-//                                l.mooseZoomStart(mem);
-//                            }
-//                        }
-                    }
+        nReceived++;
+        if (isContinuous(mem)) {
+            nDeltas++;
+            if (hold(mem, System.nanoTime())) return;
+        }
+
+        offer(mem);
+    }
+
+    private void offer(Memo mem) {
+        final Lane lane = isContinuous(mem) ? continuousLane : discreteLane;
+        if (!lane.offer(mem)) {
+            conLog.warn("{} lane full, {} dropped", lane.getName(), mem);
+            recycleMemo(mem);
+        }
+
+        if (drainScheduled.compareAndSet(false, true)) {
+            drainScheduleTime = System.nanoTime();
+            SwingUtilities.invokeLater(drainTask);
+        }
+    }
+
+    //-- Adaptive merging (Server thread)
+
+    /**
+     * Is the EDT behind? (the pending drain has waited longer than the budget)
+     * @param now System.nanoTime()
+     * @return True if lagging
+     */
+    private boolean isLagging(long now) {
+        return drainScheduled.get() && now - drainScheduleTime > lagBudget;
+    }
+
+    /**
+     * Hold a delta while the EDT lags (merged into a held one of the same device and kind)
+     * @param mem Memo (delta)
+     * @param now System.nanoTime()
+     * @return True if held or merged (not to be offered now)
+     */
+    private boolean hold(Memo mem, long now) {
+        if (!isLagging(now) || unmergedDevices.contains(mem.getDeviceId())) {
+            flushHeld();
+            return false;
+        }
+
+        for (int i = 0; i < nHeld; i++) {
+            if (held[i].canMerge(mem)) {
+                held[i].merge(mem);
+                nHeldMerged++;
+                recycleMemo(mem);
+                return true;
+            }
+        }
+
+        if (nHeld == MAX_HELD) flushHeld();
+        held[nHeld++] = mem;
+        return true;
+    }
+
+    /**
+     * Pass the held deltas on if the EDT has caught up (called by the producer when idle, e.g., each I/O loop)
+     * @param now System.nanoTime()
+     */
+    public void flushHeld(long now) {
+        if (nHeld > 0 && !isLagging(now)) flushHeld();
+    }
+
+    /**
+     * Are deltas held? (the producer should call flushHeld() soon)
+     * @return True if any held
+     */
+    public boolean hasHeldDeltas() {
+        return nHeld > 0;
+    }
+
+    private void flushHeld() {
+        for (int i = 0; i < nHeld; i++) {
+            offer(held[i]);
+            held[i] = null;
+        }
+        nHeld = 0;
+    }
+
+    private static boolean isContinuous(Memo mem) {
+        return mem.getActionCode() == MemoCodes.SCROLL || mem.getActionCode() == MemoCodes.ZOOM;
+    }
+
+    /**
+     * Deliver the queued Memos (on the EDT)
+     * The discrete lane goes first and again before each delta; consecutive deltas of the same kind are merged.
+     * Only the deltas queued at the start are taken: later ones wait for the next drain, so the lag stays visible
+     * to the producer (which then merges them ahead of the lane).
+     */
+    private void drain() {
+        edtLag.record(System.nanoTime() - drainScheduleTime);
+        drainScheduled.set(false); // Memos coming from now on schedule another drain
+
+        drainDiscrete();
+        Memo pending = null;
+        Memo mem;
+        int n = continuousLane.getDepth();
+        while (n-- > 0 && (mem = continuousLane.poll()) != null) {
+            if (pending != null && pending.canMerge(mem) && !unmergedDevices.contains(mem.getDeviceId())) {
+                pending.merge(mem);
+                pool.release(mem);
+                nMerged++;
+            } else {
+                if (pending != null) {
+                    dispatchAndRelease(pending);
+                    drainDiscrete();
                 }
+                pending = mem;
+            }
+        }
+
+        if (pending != null) dispatchAndRelease(pending);
+        drainDiscrete();
+
+        // Left for the next drain (unless the producer already scheduled it)
+        if (continuousLane.getDepth() > 0 && drainScheduled.compareAndSet(false, true)) {
+            drainScheduleTime = System.nanoTime();
+            SwingUtilities.invokeLater(drainTask);
+        }
+    }
+
+    private void drainDiscrete() {
+        Memo mem;
+        while ((mem = discreteLane.poll()) != null) dispatchAndRelease(mem);
+    }
+
+    private void dispatchAndRelease(Memo mem) {
+        dispatch(mem);
+        pool.release(mem);
+    }
+
+    /**
+     * Deliver one Memo to all the interested listeners
+     * @param mem Memo
+     */
+    private void dispatch(Memo mem) {
+        final Handler handler = DISPATCH_TABLE[mem.getActionCode()][mem.getModeCode()];
+        if (handler == null) return;
+
+        dispatch(mooseListener, handler, mem);
+
+        final ListenerSlot[] devList = deviceListeners.get(mem.getDeviceId());
+        if (devList != null) dispatch(devList, handler, mem);
+    }
+
+    private void dispatch(ListenerSlot[] listeners, Handler handler, Memo mem) {
+        for (ListenerSlot slot : listeners) {
+            final long start = System.nanoTime();
+            handler.handle(slot.listener, mem);
+            final long time = System.nanoTime() - start;
+
+            slot.nCalls++;
+            slot.callTime.record(time);
+            if (time > SLOW_CALL_NS && slot.nSlowCalls++ == 0) {
+                conLog.warn("Slow listener {}: {} ms for {}", slot.listener.getClass().getSimpleName(),
+                        time / 1_000_000, mem);
             }
         }
     }
+
+    /**
+     * Get the number of Memos received
+     * @return Count
+     */
+    public long getReceivedCount() {
+        return nReceived;
+    }
+
+    /**
+     * Get the number of Memos merged into a previous delta
+     * @return Count
+     */
+    public long getMergedCount() {
+        return nMerged;
+    }
+
+    /**
+     * Set how long the EDT may lag before deltas are merged ahead of the lanes
+     * @param budget Lag budget (ms)
+     */
+    public void setLagBudget(int budget) {
+        lagBudget = TimeUnit.MILLISECONDS.toNanos(Math.max(0, budget));
+    }
+
+    /**
+     * Get the times from scheduling a drain to its start on the EDT
+     * @return LatencyHistogram
+     */
+    public LatencyHistogram getEdtLag() {
+        return edtLag;
+    }
+
+    /**
+     * Get the share of the deltas merged ahead of the lanes (because the EDT lagged)
+     * @return Ratio (0-1)
+     */
+    public double getAdaptiveMergeRatio() {
+        final long n = nDeltas;
+        return (n == 0) ? 0 : (double) nHeldMerged / n;
+    }
+
+    /**
+     * Get the number of deltas merged ahead of the lanes
+     * @return Count
+     */
+    public long getAdaptiveMergedCount() {
+        return nHeldMerged;
+    }
+
+    /**
+     * Get the number of Memos dropped (a lane was full)
+     * @return Count
+     */
+    public long getDroppedCount() {
+        return discreteLane.getDroppedCount() + continuousLane.getDroppedCount();
+    }
+
+    /**
+     * Get the lane of the discrete events (CLICK)
+     * @return Lane
+     */
+    public Lane getDiscreteLane() {
+        return discreteLane;
+    }
+
+    /**
+     * Get the lane of the continuous deltas (SCROLL/ZOOM)
+     * @return Lane
+     */
+    public Lane getContinuousLane() {
+        return continuousLane;
+    }
+
+    /**
+     * Get the number of calls to a listener
+     * @param l MooseListener
+     * @return Count (0 if not registered)
+     */
+    public synchronized long getCallCount(MooseListener l) {
+        final ListenerSlot slot = slots.get(l);
+        return (slot != null) ? slot.nCalls : 0;
+    }
+
+    /**
+     * Get the time spent in the calls to a listener
+     * @param l MooseListener
+     * @return LatencyHistogram (null if not registered)
+     */
+    public synchronized LatencyHistogram getCallTime(MooseListener l) {
+        final ListenerSlot slot = slots.get(l);
+        return (slot != null) ? slot.callTime : null;
+    }
+
+    /**
+     * Log the call statistics of all the listeners
+     */
+    public synchronized void logListenerStats() {
+        for (ListenerSlot slot : slots.values()) {
+            conLog.info("{}", slot);
+        }
+    }
+
+    /**
+     * Get the number of Memos created because the pool was empty (stops growing in steady state)
+     * @return Count
+     */
+    public long getCreatedMemoCount() {
+        return pool.getCreatedCount();
+    }
 }
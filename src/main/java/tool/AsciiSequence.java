@@ -0,0 +1,71 @@
+package tool;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable CharSequence view of ASCII bytes (no copying)
+ * The view is only valid until the bytes change or it is wrapped again.
+ */
+public class AsciiSequence implements CharSequence {
+    private byte[] array;
+    private ByteBuffer buffer;
+    private int offset;
+    private int length;
+
+    /**
+     * View bytes of an array
+     * @param bytes Array
+     * @param off Start index
+     * @param len Number of bytes
+     * @return This view
+     */
+    public AsciiSequence wrap(byte[] bytes, int off, int len) {
+        array = bytes;
+        buffer = null;
+        offset = off;
+        length = len;
+        return this;
+    }
+
+    /**
+     * View the remaining bytes of a buffer (the position is not changed)
+     * @param bytes ByteBuffer
+     * @return This view
+     */
+    public AsciiSequence wrap(ByteBuffer bytes) {
+        array = null;
+        buffer = bytes;
+        offset = bytes.position();
+        length = bytes.remaining();
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+        final byte b = (array != null) ? array[offset + index] : buffer.get(offset + index);
+        return (char) (b & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) throw new IndexOutOfBoundsException(start);
+        if (array != null) return new String(array, offset + start, end - start, StandardCharsets.US_ASCII);
+        return toString().substring(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (array != null) return new String(array, offset, length, StandardCharsets.US_ASCII);
+
+        final byte[] copy = new byte[length];
+        buffer.get(offset, copy);
+        return new String(copy, StandardCharsets.US_ASCII);
+    }
+}
@@ -70,6 +70,12 @@ public class Constants {
         public static final String ZOOM = "ZOOM";
         public static final String ZOOM_START = "ZOOM_START";
         public static final String KEEP_ALIVE = "KEEP_ALIVE";
+        public static final String ENCODING = "ENCODING";
+        public static final String TEXT = "TEXT";
+        public static final String BINARY = "BINARY";
+        public static final String PING = "PING";
+        public static final String HELLO = "HELLO"; // Handshake: protocol version + encodings [+ device token]
+        public static final String CAPS = "CAPS"; // Handshake: max. sample rate + clock resolution
 
         public final static String GRAB = "GRAB";
         public final static String DRAG = "DRAG";
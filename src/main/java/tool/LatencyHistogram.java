@@ -0,0 +1,89 @@
+package tool;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of durations (ns) with power-of-two buckets
+ * Recording never allocates. Meant for one recording thread; other threads can read (approximate) values.
+ */
+public class LatencyHistogram {
+    private static final int N_BUCKETS = Long.SIZE; // Bucket i: [2^(i-1), 2^i) ns
+
+    private final long[] buckets = new long[N_BUCKETS];
+    private volatile long count;
+    private volatile long sum;
+    private volatile long min = Long.MAX_VALUE;
+    private volatile long max;
+
+    /**
+     * Record one duration
+     * @param nanos Duration (ns); negatives are counted as 0
+     */
+    public void record(long nanos) {
+        final long v = Math.max(0, nanos);
+        buckets[N_BUCKETS - Long.numberOfLeadingZeros(v)]++;
+        sum += v;
+        if (v < min) min = v;
+        if (v > max) max = v;
+        count++;
+    }
+
+    /**
+     * Clear all the values
+     */
+    public void reset() {
+        Arrays.fill(buckets, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return (count == 0) ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Get the mean
+     * @return Mean (ns)
+     */
+    public double getMean() {
+        final long n = count;
+        return (n == 0) ? 0 : (double) sum / n;
+    }
+
+    /**
+     * Get a percentile (upper bound of its bucket, capped to the max)
+     * @param p Percentile (0-100)
+     * @return Value (ns)
+     */
+    public long getPercentile(double p) {
+        final long n = count;
+        if (n == 0) return 0;
+
+        final long rank = (long) Math.ceil(n * p / 100.0);
+        long seen = 0;
+        for (int i = 0; i < N_BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank) return Math.min(max, (i == 0) ? 0 : (1L << i) - 1);
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("n=%d, min=%.3f, mean=%.3f, p50=%.3f, p99=%.3f, max=%.3f (ms)",
+                getCount(),
+                getMin() / 1e6, getMean() / 1e6,
+                getPercentile(50) / 1e6, getPercentile(99) / 1e6,
+                getMax() / 1e6);
+    }
+}
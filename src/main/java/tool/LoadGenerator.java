@@ -0,0 +1,305 @@
+package tool;
+
+import control.ClockSync;
+import control.DeviceCaps;
+import control.JitterBuffer;
+import control.Server;
+import listener.MooseListener;
+import moose.Memo;
+import moose.Moose;
+import org.tinylog.Logger;
+import org.tinylog.TaggedLogger;
+import tool.Constants.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stand-in Moose devices for stressing the Server and Moose without the phone
+ * The Server and Moose run in this JVM; the clients connect to Server.PORT and send SCROLL/ZOOM/CLICK/KEEP_ALIVE.
+ * Every event has value1 = 1, so the sum received by the listener counts them even when deltas are merged.
+ * Binary frames carry the send time (µs), so the latency up to the listener call is measured.
+ * Each client says HELLO with a token (its name), so the Server pings it and resumes it after a forced disconnect.
+ * Run: java tool.LoadGenerator [--clients n] [--rate Hz] [--mix scroll:zoom:click:keepAlive] [--burst n]
+ *      [--jitter µs] [--jitter-buffer ms] [--lag-budget ms] [--listener-cost µs] [--duration s]
+ *      [--disconnect-every s] [--text]
+ */
+public class LoadGenerator {
+    private static final TaggedLogger conLog = Logger.tag(LoadGenerator.class.getSimpleName());
+
+    private static final int CONNECT_WAIT = 500; // ms (Server binding / reconnecting)
+    private static final int DRAIN_WAIT = 1000; // ms (after the clients stop)
+    private static final int OUT_BUFFER_SIZE = 64 * 1024; // bytes
+
+    //-- Settings
+    private static int nClients = 1;
+    private static double rate = 1000; // Events/s per client
+    private static int[] mix = {6, 3, 0, 1}; // Weights of SCROLL, ZOOM, CLICK, KEEP_ALIVE
+    private static int burst = 1; // Events sent back-to-back at each tick
+    private static long jitterNs = 0; // Max. random shift of a tick
+    private static int jitterBufferMs = 0; // Server playout delay (0 = off)
+    private static int lagBudgetMs = -1; // EDT lag before Moose merges upstream (-1 = default)
+    private static long listenerCostNs = 0; // Busy time of each listener call (a slow UI)
+    private static int durationSec = 10;
+    private static double disconnectEverySec = 0; // 0 = never
+    private static boolean binary = true;
+
+    //-- Counters
+    private static final LongAdder nSent = new LongAdder(); // Events (SCROLL/ZOOM/CLICK)
+    private static final LongAdder nKeepAlives = new LongAdder();
+    private static final LongAdder nEchoes = new LongAdder();
+    private static final LongAdder nDisconnects = new LongAdder();
+    private static final LongAdder nPongs = new LongAdder();
+    private static final LongAdder nReceived = new LongAdder(); // Sum of value1 at the listener (EDT)
+    private static final LatencyHistogram latency = new LatencyHistogram(); // Send -> listener (EDT)
+
+    private static volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        parseArgs(args);
+
+        final Moose moose = new Moose();
+        moose.addMooseListener(new CountingListener());
+        if (lagBudgetMs >= 0) moose.setLagBudget(lagBudgetMs);
+        Server.get().setJournalDir(null);
+        Server.get().setJitterDelay(jitterBufferMs);
+        Server.get().setMoose(moose);
+        Server.get().start();
+        Thread.sleep(CONNECT_WAIT);
+
+        conLog.info("{} clients x {} ev/s, mix {}:{}:{}:{}, burst {}, jitter {} us, {} s, {}",
+                nClients, rate, mix[0], mix[1], mix[2], mix[3], burst, jitterNs / 1000, durationSec,
+                binary ? "binary" : "text");
+
+        final List<Thread> clients = new ArrayList<>();
+        for (int i = 0; i < nClients; i++) {
+            final Thread t = new Thread(new Client(), "Client-" + (i + 1));
+            t.start();
+            clients.add(t);
+        }
+
+        // Report every second
+        long lastSent = 0;
+        long lastReceived = 0;
+        for (int s = 1; s <= durationSec; s++) {
+            Thread.sleep(1000);
+            final long sent = nSent.sum();
+            final long received = nReceived.sum();
+            conLog.info("{} s: sent {}/s, received {}/s, EDT lanes dropped {}, latency [{}]",
+                    s, sent - lastSent, received - lastReceived, moose.getDroppedCount(), latency);
+            lastSent = sent;
+            lastReceived = received;
+        }
+
+        // Clock sync of the devices (before they disconnect)
+        final List<ClockSync> clockSyncs = new ArrayList<>();
+        for (int id = 1; id <= nClients; id++) clockSyncs.add(Server.get().getClockSync(id));
+
+        running = false;
+        for (Thread t : clients) t.join();
+        Thread.sleep(DRAIN_WAIT);
+
+        final long sent = nSent.sum();
+        final long received = nReceived.sum();
+        conLog.info("Sent {} events, received {} (drop rate {}%), merged {}, EDT lanes dropped {}",
+                sent, received, String.format("%.3f", (sent > 0) ? 100.0 * (sent - received) / sent : 0.0),
+                moose.getMergedCount(), moose.getDroppedCount());
+        conLog.info("Keep-alives {}, echoes {}, pongs {}, out queue dropped {}, forced disconnects {}",
+                nKeepAlives.sum(), nEchoes.sum(), nPongs.sum(), Server.get().getOutDropped(), nDisconnects.sum());
+        conLog.info("Latency to listener [{}]", latency);
+        conLog.info("{}", moose.getDiscreteLane());
+        conLog.info("{}", moose.getContinuousLane());
+        conLog.info("EDT lag [{}], merged upstream {} ({}%)", moose.getEdtLag(), moose.getAdaptiveMergedCount(),
+                String.format("%.1f", 100 * moose.getAdaptiveMergeRatio()));
+        conLog.info("Resumed {}, reconnect gap [{}]", Server.get().getResumedCount(), Server.get().getReconnectGap());
+        conLog.info("Server write latency [{}]", Server.get().getWriteLatency());
+        for (int id = 1; id <= nClients; id++) {
+            final JitterBuffer jitter = Server.get().getJitterStats(id);
+            if (jitter != null && jitter.getRawIntervals().getCount() > 0) conLog.info("Device {}: {}", id, jitter);
+            final ClockSync clockSync = clockSyncs.get(id - 1);
+            if (clockSync != null) conLog.info("Device {}: {}", id, clockSync);
+        }
+
+        Server.get().shutDown();
+        System.exit(0);
+    }
+
+    private static void parseArgs(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--clients" -> nClients = Integer.parseInt(args[++i]);
+                case "--rate" -> rate = Double.parseDouble(args[++i]);
+                case "--mix" -> {
+                    final String[] parts = args[++i].split(":");
+                    for (int k = 0; k < mix.length; k++) mix[k] = (k < parts.length) ? Integer.parseInt(parts[k]) : 0;
+                }
+                case "--burst" -> burst = Math.max(1, Integer.parseInt(args[++i]));
+                case "--jitter" -> jitterNs = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(args[++i]));
+                case "--jitter-buffer" -> jitterBufferMs = Integer.parseInt(args[++i]);
+                case "--lag-budget" -> lagBudgetMs = Integer.parseInt(args[++i]);
+                case "--listener-cost" -> listenerCostNs = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(args[++i]));
+                case "--duration" -> durationSec = Integer.parseInt(args[++i]);
+                case "--disconnect-every" -> disconnectEverySec = Double.parseDouble(args[++i]);
+                case "--text" -> binary = false;
+                default -> conLog.warn("Unknown option {}", args[i]);
+            }
+        }
+    }
+
+    //-- Counts the events and measures their latency (on the EDT)
+    private static class CountingListener implements MooseListener {
+        @Override
+        public void mooseClicked(Memo mem) {
+            onEvent(mem);
+        }
+
+        @Override
+        public void mooseScrolled(Memo mem) {
+            onEvent(mem);
+        }
+
+        @Override
+        public void mooseWheelMoved(Memo mem) {
+            onEvent(mem);
+        }
+
+        @Override
+        public void mooseZoomStart(Memo mem) {
+        }
+
+        private void onEvent(Memo mem) {
+            final long start = System.nanoTime();
+            while (System.nanoTime() - start < listenerCostNs) Thread.onSpinWait();
+
+            nReceived.add(mem.getV1Int());
+            if (mem.getTimestamp() != 0) {
+                latency.record(System.nanoTime() - TimeUnit.MICROSECONDS.toNanos(mem.getTimestamp()));
+            }
+        }
+    }
+
+    //-- One stand-in device: sends at the set rate and reconnects after forced disconnects
+    private static class Client implements Runnable {
+        private final ByteBuffer out = ByteBuffer.allocateDirect(OUT_BUFFER_SIZE);
+        private final int mixTotal = mix[0] + mix[1] + mix[2] + mix[3];
+
+        @Override
+        public void run() {
+            final long tickInterval = (long) (1e9 * burst / rate);
+            final long disconnectInterval = (long) (1e9 * disconnectEverySec);
+
+            while (running) {
+                try (SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", Server.PORT))) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    hello(channel);
+                    final Thread reader = new Thread(() -> read(channel), Thread.currentThread().getName() + "-in");
+                    reader.start();
+
+                    final long disconnectTime = (disconnectInterval > 0)
+                            ? System.nanoTime() + disconnectInterval
+                            : Long.MAX_VALUE;
+                    long nextTick = System.nanoTime();
+                    while (running && System.nanoTime() < disconnectTime) {
+                        // Wait for the tick (shifted by the jitter)
+                        final long due = nextTick + ((jitterNs > 0)
+                                ? ThreadLocalRandom.current().nextLong(-jitterNs, jitterNs + 1)
+                                : 0);
+                        long now;
+                        while ((now = System.nanoTime()) < due) LockSupport.parkNanos(due - now);
+
+                        // Everything due since (catches up if the sender fell behind)
+                        out.clear();
+                        while (nextTick <= now && out.remaining() > OUT_BUFFER_SIZE / 2) {
+                            for (int i = 0; i < burst; i++) encode(nextMemo());
+                            nextTick += tickInterval;
+                        }
+                        out.flip();
+                        synchronized (channel) {
+                            while (out.hasRemaining()) channel.write(out);
+                        }
+                    }
+
+                    if (running) nDisconnects.increment(); // Forced
+                } catch (IOException e) {
+                    if (running) conLog.warn("{}: {}", Thread.currentThread().getName(), e.getMessage());
+                }
+
+                if (running) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(CONNECT_WAIT));
+            }
+        }
+
+        /**
+         * Say HELLO (text): the Server answers in text, as the reader only reads lines; frames are sent anyway
+         */
+        private void hello(SocketChannel channel) throws IOException {
+            final Memo hello = new Memo(STRINGS.CONNECTION, STRINGS.HELLO, DeviceCaps.PROTOCOL_VERSION, STRINGS.TEXT);
+            final ByteBuffer bytes = ByteBuffer.wrap((hello + STRINGS.SP + Thread.currentThread().getName() + "\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            while (bytes.hasRemaining()) channel.write(bytes);
+        }
+
+        private Memo nextMemo() {
+            int pick = ThreadLocalRandom.current().nextInt(mixTotal);
+            if ((pick -= mix[0]) < 0) return event(STRINGS.SCROLL, STRINGS.SINGLE);
+            if ((pick -= mix[1]) < 0) return event(STRINGS.ZOOM, STRINGS.ZOOM);
+            if ((pick -= mix[2]) < 0) return event(STRINGS.CLICK, STRINGS.SINGLE);
+
+            nKeepAlives.increment();
+            return new Memo(STRINGS.CONNECTION, STRINGS.KEEP_ALIVE, 0, 0);
+        }
+
+        private Memo event(String action, String mode) {
+            nSent.increment();
+            final Memo memo = new Memo(action, mode, 1, 0);
+            memo.setTimestamp(TimeUnit.NANOSECONDS.toMicros(System.nanoTime()));
+            return memo;
+        }
+
+        private void encode(Memo memo) {
+            if (binary) memo.writeFrame(out);
+            else out.put((memo + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+
+        /**
+         * Read what the Server sends (counts the echoes, answers the pings with this JVM's clock)
+         */
+        private void read(SocketChannel channel) {
+            try {
+                final BufferedReader in = new BufferedReader(Channels.newReader(channel, StandardCharsets.US_ASCII));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    final Memo memo = Memo.valueOf(line);
+                    if (!memo.getAction().equals(STRINGS.CONNECTION)) continue;
+
+                    switch (memo.getMode()) {
+                        case STRINGS.KEEP_ALIVE -> nEchoes.increment();
+                        case STRINGS.PING -> {
+                            final Memo pong = new Memo(STRINGS.CONNECTION, STRINGS.PING, memo.getV1Int(),
+                                    TimeUnit.NANOSECONDS.toMicros(System.nanoTime()));
+                            final ByteBuffer bytes = ByteBuffer.wrap(
+                                    (pong + "\n").getBytes(StandardCharsets.US_ASCII));
+                            synchronized (channel) {
+                                while (bytes.hasRemaining()) channel.write(bytes);
+                            }
+                            nPongs.increment();
+                        }
+                    }
+                }
+            } catch (IOException ignored) {
+                // Closed (forced disconnect or end)
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package tool;
+
+import control.Logex;
+import enums.TrialEvent;
+import org.tinylog.Logger;
+import org.tinylog.TaggedLogger;
+
+import javax.swing.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cost of Logex.logEvent: the string-keyed map it replaced, the String adapter and the interned codes
+ * Each round logs ZOOM events into a fresh trial (like a trial with many wheel notches).
+ * Runs on the EDT, like Logex in the app.
+ * Run: java tool.LogexBenchmark [nEvents] [nRounds]
+ */
+public class LogexBenchmark {
+    private static final TaggedLogger conLog = Logger.tag(LogexBenchmark.class.getSimpleName());
+
+    private static final int WARMUP_ROUNDS = 20;
+
+    //-- Approach that was replaced: "first_"/"last_" + key into a HashMap of TrialEvents
+    private static final Map<String, TrialEvent> mapLogs = new HashMap<>();
+    private static long sink; // Keeps the results alive
+
+    public static void main(String[] args) throws Exception {
+        final int nEvents = (args.length > 0) ? Integer.parseInt(args[0]) : 10_000;
+        final int nRounds = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+
+        SwingUtilities.invokeAndWait(() -> run(nEvents, nRounds));
+    }
+
+    private static void run(int nEvents, int nRounds) {
+        final Logex logex = new Logex();
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runMap(nEvents);
+            runKey(logex, nEvents);
+            runCode(logex, nEvents);
+        }
+
+        final LatencyHistogram map = new LatencyHistogram();
+        final LatencyHistogram key = new LatencyHistogram();
+        final LatencyHistogram code = new LatencyHistogram();
+        for (int i = 0; i < nRounds; i++) {
+            map.record(runMap(nEvents));
+            key.record(runKey(logex, nEvents));
+            code.record(runCode(logex, nEvents));
+        }
+
+        conLog.info("logEvent ({} events x {} rounds; ns per event)", nEvents, nRounds);
+        conLog.info("String map: {}", perEvent(map, nEvents));
+        conLog.info("String key: {}", perEvent(key, nEvents));
+        conLog.info("Code:       {}", perEvent(code, nEvents));
+        conLog.trace("{}", sink);
+    }
+
+    private static String perEvent(LatencyHistogram rounds, int nEvents) {
+        return String.format("mean=%.1f, min=%.1f", // Histogram buckets are too coarse for percentiles
+                rounds.getMean() / nEvents,
+                (double) rounds.getMin() / nEvents);
+    }
+
+    private static long runMap(int nEvents) {
+        final long start = System.nanoTime();
+        mapLogs.clear();
+        for (int i = 0; i < nEvents; i++) {
+            final String first = TrialEvent.getFirst(TrialEvent.ZOOM);
+            if (!mapLogs.containsKey(first)) mapLogs.put(first, new TrialEvent(first));
+            final String last = TrialEvent.getLast(TrialEvent.ZOOM);
+            mapLogs.put(last, new TrialEvent(last));
+            if (mapLogs.containsKey(TrialEvent.getLast(TrialEvent.FOCUS_ENTER))) sink++;
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runKey(Logex logex, int nEvents) {
+        final long start = System.nanoTime();
+        logex.activateTrial(null);
+        for (int i = 0; i < nEvents; i++) {
+            logex.logEvent(TrialEvent.ZOOM, i);
+            if (logex.hasLoggedKey(TrialEvent.FOCUS_ENTER)) sink++;
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long runCode(Logex logex, int nEvents) {
+        final long start = System.nanoTime();
+        logex.activateTrial(null);
+        for (int i = 0; i < nEvents; i++) {
+            logex.logEvent(TrialEvent.Code.ZOOM, i);
+            if (logex.hasLogged(TrialEvent.Code.FOCUS_ENTER)) sink++;
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,128 @@
+package tool;
+
+import moose.Memo;
+import org.tinylog.Logger;
+import org.tinylog.TaggedLogger;
+import tool.Constants.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+/**
+ * Cost of decoding Memos: the String.split path it replaced, valueOf, and the in-place decode/decodeFrame
+ * Each round decodes a mix of scroll/zoom lines as LoadGenerator sends them (and their frames) and reads both values.
+ * Time and allocated bytes are per Memo; the allocation counter is the JVM's per-thread one.
+ * Run: java tool.MemoBenchmark [nMemos] [nRounds]
+ */
+public class MemoBenchmark {
+    private static final TaggedLogger conLog = Logger.tag(MemoBenchmark.class.getSimpleName());
+
+    private static final int WARMUP_ROUNDS = 20;
+
+    private static final String[] LINES = {
+            new Memo(STRINGS.SCROLL, STRINGS.SINGLE, 12, -4).toString(),
+            new Memo(STRINGS.SCROLL, STRINGS.SINGLE, 12.5, -3.25).toString(),
+            new Memo(STRINGS.ZOOM, STRINGS.ZOOM, -3, 0).toString(),
+            new Memo(STRINGS.ZOOM, STRINGS.ZOOM, 1.5, 0).toString()
+    };
+    private static final ByteBuffer[] FRAMES = new ByteBuffer[LINES.length];
+    static {
+        for (int i = 0; i < LINES.length; i++) {
+            FRAMES[i] = ByteBuffer.allocate(Memo.FRAME_SIZE);
+            Memo.valueOf(LINES[i]).writeFrame(FRAMES[i]);
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean threadBean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private static double sink; // Keeps the results alive
+
+    public static void main(String[] args) {
+        final int nMemos = (args.length > 0) ? Integer.parseInt(args[0]) : 100_000;
+        final int nRounds = (args.length > 1) ? Integer.parseInt(args[1]) : 100;
+
+        final Memo memo = new Memo(); // Reused, like a pooled Memo
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runSplit(nMemos);
+            runValueOf(nMemos);
+            runDecode(memo, nMemos);
+            runDecodeFrame(memo, nMemos);
+        }
+
+        final Round split = new Round();
+        final Round valueOf = new Round();
+        final Round decode = new Round();
+        final Round decodeFrame = new Round();
+        for (int i = 0; i < nRounds; i++) {
+            split.measure(() -> runSplit(nMemos));
+            valueOf.measure(() -> runValueOf(nMemos));
+            decode.measure(() -> runDecode(memo, nMemos));
+            decodeFrame.measure(() -> runDecodeFrame(memo, nMemos));
+        }
+
+        conLog.info("Decode ({} Memos x {} rounds; per Memo)", nMemos, nRounds);
+        conLog.info("String.split:  {}", split.perMemo(nMemos));
+        conLog.info("valueOf:       {}", valueOf.perMemo(nMemos));
+        conLog.info("decode:        {}", decode.perMemo(nMemos));
+        conLog.info("decodeFrame:   {}", decodeFrame.perMemo(nMemos));
+        conLog.trace("{}", sink);
+    }
+
+    /**
+     * Time and allocation of the rounds of one approach
+     */
+    private static class Round {
+        private final LatencyHistogram times = new LatencyHistogram();
+        private long nBytes;
+        private int nRounds;
+
+        void measure(Runnable run) {
+            final long bytes = threadBean.getCurrentThreadAllocatedBytes();
+            final long start = System.nanoTime();
+            run.run();
+            times.record(System.nanoTime() - start);
+            nBytes += threadBean.getCurrentThreadAllocatedBytes() - bytes;
+            nRounds++;
+        }
+
+        String perMemo(int nMemos) {
+            return String.format("mean=%.1f ns, min=%.1f ns, alloc=%.1f B", // Histogram buckets are too coarse for percentiles
+                    times.getMean() / nMemos,
+                    (double) times.getMin() / nMemos,
+                    (double) nBytes / nRounds / nMemos);
+        }
+    }
+
+    //-- Approach that was replaced: split the line into Strings, parse the values when read
+    private static void runSplit(int nMemos) {
+        for (int i = 0; i < nMemos; i++) {
+            final String[] parts = LINES[i % LINES.length].split(STRINGS.SP);
+            if (parts.length >= 4 && parts.length <= 5) {
+                sink += Float.parseFloat(parts[2]) + Float.parseFloat(parts[3]);
+            }
+        }
+    }
+
+    private static void runValueOf(int nMemos) {
+        for (int i = 0; i < nMemos; i++) {
+            final Memo memo = Memo.valueOf(LINES[i % LINES.length]);
+            sink += memo.getV1Float() + memo.getV2Float();
+        }
+    }
+
+    private static void runDecode(Memo memo, int nMemos) {
+        for (int i = 0; i < nMemos; i++) {
+            memo.decode(LINES[i % LINES.length]);
+            sink += memo.getV1Float() + memo.getV2Float();
+        }
+    }
+
+    private static void runDecodeFrame(Memo memo, int nMemos) {
+        for (int i = 0; i < nMemos; i++) {
+            final ByteBuffer frame = FRAMES[i % FRAMES.length];
+            frame.position(1); // After the marker
+            memo.decodeFrame(frame);
+            sink += memo.getV1Float() + memo.getV2Float();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package tool;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock-free ring for one producer thread and one consumer thread
+ * offer() is only called by the producer, poll() only by the consumer. Neither allocates.
+ * @param <T> Type of the elements
+ */
+public class SpscRing<T> {
+    private final Object[] elements;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong(); // Next to poll (written by the consumer)
+    private final AtomicLong tail = new AtomicLong(); // Next to offer (written by the producer)
+
+    /**
+     * Constructor
+     * @param capacity Capacity (rounded up to a power of two)
+     */
+    public SpscRing(int capacity) {
+        final int size = (capacity <= 2) ? 2 : Integer.highestOneBit(capacity - 1) << 1;
+        elements = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Add an element (producer only)
+     * @param e Element (not null)
+     * @return False if the ring is full
+     */
+    public boolean offer(T e) {
+        final long t = tail.get();
+        if (t - head.get() >= elements.length) return false;
+
+        elements[(int) t & mask] = e;
+        tail.lazySet(t + 1); // Publishes the element
+        return true;
+    }
+
+    /**
+     * Take the oldest element (consumer only)
+     * @return Element or null if empty
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        final long h = head.get();
+        if (h >= tail.get()) return null;
+
+        final int i = (int) h & mask;
+        final T e = (T) elements[i];
+        elements[i] = null;
+        head.lazySet(h + 1); // Frees the slot
+        return e;
+    }
+
+    /**
+     * Look at the oldest element without taking it (consumer only)
+     * @return Element or null if empty
+     */
+    @SuppressWarnings("unchecked")
+    public T peek() {
+        final long h = head.get();
+        if (h >= tail.get()) return null;
+        return (T) elements[(int) h & mask];
+    }
+
+    /**
+     * Number of elements (approximate if called during offer/poll)
+     * @return Size
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head.get());
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+}
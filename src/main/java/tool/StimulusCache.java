@@ -0,0 +1,189 @@
+package tool;
+
+import com.kitfox.svg.SVGDiagram;
+import com.kitfox.svg.SVGRoot;
+import com.kitfox.svg.SVGUniverse;
+import org.tinylog.Logger;
+import org.tinylog.TaggedLogger;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Stimuli shared by all the Sessions in the JVM: the SVG sources, the prepared (colored/rotated) diagrams
+ * and the rendered viewport images
+ * A prepared diagram is keyed by its source and a variant (e.g., the target of a zoom trial); it is read-only
+ * after preparation, so the sessions (and the repeated trials) can show the same one. Both caches are LRU;
+ * a diagram is only removed from the universe when no viewport holds it (getDiagram -> releaseDiagram).
+ */
+public class StimulusCache {
+    private static final TaggedLogger conLog = Logger.tag(StimulusCache.class.getSimpleName());
+
+    private static final int MAX_DIAGRAMS = 128; // Prepared diagrams (zoom targets, pan rotations)
+    private static final int MAX_RASTERS = 24; // Viewport images (~2 MB each)
+
+    //-- Key of a rendered viewport image
+    private record RasterKey(URI uri, int svgSize, int width, int height) {}
+
+    private static final SVGUniverse universe = new SVGUniverse();
+    private static final Map<URI, String> sources = new HashMap<>(); // Source URI -> SVG text
+    private static final Set<String> generated = new HashSet<>(); // Generated grid files (with their parameters)
+
+    private static final LinkedHashMap<String, URI> diagrams = new LinkedHashMap<>(16, 0.75f, true); // LRU order
+    private static final Map<URI, Integer> diagramUses = new HashMap<>(); // Holders of each diagram (none = absent)
+
+    private static final LinkedHashMap<RasterKey, BufferedImage> rasters = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<RasterKey, BufferedImage> eldest) {
+            return size() > MAX_RASTERS;
+        }
+    };
+
+    private static long nDiagramHits;
+    private static long nDiagramMisses;
+    private static long nRasterHits;
+    private static long nRasterMisses;
+
+    /**
+     * Get the universe of the prepared diagrams (set it on the SVGIcons that show them)
+     * @return SVGUniverse
+     */
+    public static SVGUniverse getUniverse() {
+        return universe;
+    }
+
+    /**
+     * Get a prepared diagram (loaded and prepared once per source and variant)
+     * @param source URI of the SVG source
+     * @param variant Variant (everything the preparation depends on)
+     * @param preparer Prepares the root of a new diagram (e.g., colors the targets)
+     * @return URI of the diagram in the universe (null if the source can't be read); release it when not shown
+     */
+    public static synchronized URI getDiagram(URI source, String variant, Consumer<SVGRoot> preparer) {
+        final String key = source + "#" + variant;
+        final URI cached = diagrams.get(key);
+        if (cached != null) {
+            nDiagramHits++;
+            diagramUses.merge(cached, 1, Integer::sum);
+            return cached;
+        }
+
+        final String text = readSource(source);
+        if (text == null) return null;
+
+        final URI uri = universe.loadSVG(new StringReader(text), key);
+        final SVGDiagram diagram = universe.getDiagram(uri);
+        if (diagram == null) return null;
+
+        preparer.accept(diagram.getRoot());
+        diagrams.put(key, uri);
+        diagramUses.merge(uri, 1, Integer::sum);
+        nDiagramMisses++;
+        trimDiagrams();
+        return uri;
+    }
+
+    /**
+     * Give back a diagram from getDiagram (it can be evicted once no one holds it)
+     * @param uri URI of the diagram (null is ignored)
+     */
+    public static synchronized void releaseDiagram(URI uri) {
+        if (uri == null) return;
+        diagramUses.computeIfPresent(uri, (u, n) -> (n > 1) ? n - 1 : null);
+        trimDiagrams();
+    }
+
+    /**
+     * Evict the least recently used diagrams that aren't held (while over MAX_DIAGRAMS)
+     */
+    private static void trimDiagrams() {
+        final Iterator<URI> it = diagrams.values().iterator();
+        while (diagrams.size() > MAX_DIAGRAMS && it.hasNext()) {
+            final URI uri = it.next();
+            if (diagramUses.containsKey(uri)) continue; // Shown somewhere
+
+            it.remove();
+            universe.removeDocument(uri);
+            rasters.keySet().removeIf(k -> k.uri().equals(uri));
+        }
+    }
+
+    /**
+     * Get a rendered viewport image (rendered once per diagram, size and viewport)
+     * @param uri URI of the diagram (from getDiagram)
+     * @param svgSize Size the diagram is drawn at (px)
+     * @param width Viewport width (px)
+     * @param height Viewport height (px)
+     * @param painter Draws the diagram into a new image
+     * @return BufferedImage (shared: only drawn, never changed)
+     */
+    public static synchronized BufferedImage getRaster(URI uri, int svgSize, int width, int height,
+                                                       Consumer<Graphics2D> painter) {
+        final RasterKey key = new RasterKey(uri, svgSize, width, height);
+        final BufferedImage cached = rasters.get(key);
+        if (cached != null) {
+            nRasterHits++;
+            return cached;
+        }
+
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D g2d = image.createGraphics();
+        try {
+            painter.accept(g2d);
+        } finally {
+            g2d.dispose();
+        }
+        rasters.put(key, image);
+        nRasterMisses++;
+        return image;
+    }
+
+    /**
+     * Generate a circle grid file (skipped if it was generated with the same parameters)
+     * @see MoSVG#genCircleGrid(String, int, int, int, Color)
+     */
+    public static synchronized void genCircleGrid(String svgFileName, int nRows, int diam, int gutter, Color color) {
+        final String key = String.join("_",
+                svgFileName, String.valueOf(nRows), String.valueOf(diam), String.valueOf(gutter),
+                String.valueOf(color.getRGB()));
+        if (!generated.add(key)) return;
+
+        generated.removeIf(k -> k.startsWith(svgFileName + "_") && !k.equals(key)); // File is overwritten
+        MoSVG.genCircleGrid(svgFileName, nRows, diam, gutter, color);
+    }
+
+    /**
+     * Read an SVG source (once)
+     * @param source URI
+     * @return SVG text (null if it can't be read)
+     */
+    private static String readSource(URI source) {
+        String text = sources.get(source);
+        if (text != null) return text;
+
+        try (InputStream in = source.toURL().openStream()) {
+            text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            sources.put(source, text);
+        } catch (IOException | IllegalArgumentException e) {
+            conLog.error("Can't read {}: {}", source, e.getMessage());
+        }
+        return text;
+    }
+
+    /**
+     * Get the cache statistics
+     * @return Hits and misses of both caches
+     */
+    public static synchronized String getStats() {
+        return String.format("diagrams %d/%d (hits/misses, %d kept), rasters %d/%d (%d kept)",
+                nDiagramHits, nDiagramMisses, diagrams.size(),
+                nRasterHits, nRasterMisses, rasters.size());
+    }
+}
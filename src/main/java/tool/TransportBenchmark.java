@@ -0,0 +1,97 @@
+package tool;
+
+import control.Server;
+import enums.Transport;
+import moose.Memo;
+import org.tinylog.Logger;
+import org.tinylog.TaggedLogger;
+import tool.Constants.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compare loopback TCP and the Unix-domain socket on the running Server
+ * Latency: one KEEP_ALIVE echo at a time. Throughput: echoes with up to WINDOW in flight.
+ * Run: java tool.TransportBenchmark [nRoundTrips] [nMessages]
+ */
+public class TransportBenchmark {
+    private static final TaggedLogger conLog = Logger.tag(TransportBenchmark.class.getSimpleName());
+
+    private static final int WARMUP = 2_000; // Round trips before measuring
+    private static final int WINDOW = 256; // Echoes in flight (below the Server's out queue)
+    private static final String ECHO_PREFIX = STRINGS.CONNECTION + STRINGS.SP + STRINGS.KEEP_ALIVE;
+
+    public static void main(String[] args) throws Exception {
+        final int nRoundTrips = (args.length > 0) ? Integer.parseInt(args[0]) : 20_000;
+        final int nMessages = (args.length > 1) ? Integer.parseInt(args[1]) : 200_000;
+
+        Server.get().setJournalDir(null); // Only the transport is measured
+        Server.get().setTransport(Transport.TCP_UDS);
+        Server.get().start();
+        Thread.sleep(500); // Let the Server bind
+
+        try (SocketChannel tcp = SocketChannel.open(new InetSocketAddress("localhost", Server.PORT));
+             SocketChannel uds = SocketChannel.open(UnixDomainSocketAddress.of(Server.UDS_PATH))) {
+            tcp.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+            run("TCP", tcp, nRoundTrips, nMessages);
+            run("UDS", uds, nRoundTrips, nMessages);
+        } finally {
+            Server.get().shutDown();
+        }
+    }
+
+    private static void run(String name, SocketChannel channel, int nRoundTrips, int nMessages) throws IOException {
+        final BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.US_ASCII));
+        final ByteBuffer line = ByteBuffer.wrap(
+                (new Memo(STRINGS.CONNECTION, STRINGS.KEEP_ALIVE, 0, 0) + "\n").getBytes(StandardCharsets.US_ASCII));
+
+        //-- Latency
+        final LatencyHistogram rtt = new LatencyHistogram();
+        for (int i = 0; i < WARMUP + nRoundTrips; i++) {
+            final long start = System.nanoTime();
+            write(channel, line);
+            readEcho(reader);
+            if (i >= WARMUP) rtt.record(System.nanoTime() - start);
+        }
+
+        //-- Throughput
+        final long start = System.nanoTime();
+        int nSent = 0;
+        int nReceived = 0;
+        while (nReceived < nMessages) {
+            while (nSent < nMessages && nSent - nReceived < WINDOW) {
+                write(channel, line);
+                nSent++;
+            }
+            readEcho(reader);
+            nReceived++;
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        conLog.info("{}: RTT [{}]", name, rtt);
+        conLog.info("{}: {} echoes in {} s = {} msg/s", name, nMessages,
+                String.format("%.3f", seconds), String.format("%.0f", nMessages / seconds));
+    }
+
+    private static void write(SocketChannel channel, ByteBuffer bytes) throws IOException {
+        bytes.rewind();
+        while (bytes.hasRemaining()) channel.write(bytes);
+    }
+
+    private static void readEcho(BufferedReader reader) throws IOException {
+        String received;
+        do {
+            received = reader.readLine(); // Skip other messages (e.g., pings)
+            if (received == null) throw new IOException("Connection closed");
+        } while (!received.startsWith(ECHO_PREFIX));
+    }
+}
@@ -16,25 +16,26 @@ public class Utils {
 
     /**
      * Returns a random int between the min (inclusive) and the bound (exclusive)
+     * @param random Random (of the Session)
      * @param min Minimum (inclusive)
      * @param bound Bound (exclusive)
      * @return Random int
      */
-    public static int randInt(int min, int bound) {
+    public static int randInt(Random random, int min, int bound) {
         if (bound <= min) return -1;
-        else return new Random().nextInt(min, bound);
+        else return random.nextInt(min, bound);
     }
 
     /**
      * Returns a random odd int between the min (inclusive) and the bound (exclusive)
+     * @param random Random (of the Session)
      * @param min Minimum (inclusive)
      * @param bound Bound (exclusive)
      * @return Random int
      */
-    public static int randOddInt(int min, int bound) {
+    public static int randOddInt(Random random, int min, int bound) {
         if (bound <= min) return min;
         else {
-            Random random = new Random();
             int randomInt;
             do {
                 randomInt = random.nextInt(bound - min) + min;
@@ -46,14 +47,15 @@ public class Utils {
 
     /**
      * Returns a random int, multiple of mult,  between the min (inclusive) and the bound (exclusive)
+     * @param random Random (of the Session)
      * @param min Minimum (inclusive)
      * @param bound Bound (exclusive)
      * @return Random int
      */
-    public static int randMulInt(int min, int bound, int mult) {
+    public static int randMulInt(Random random, int min, int bound, int mult) {
         conLog.trace("min; bound = {}; {}", min, bound);
         if (bound <= min) return -1;
-        return mult * randInt(min / mult, bound / mult);
+        return mult * randInt(random, min / mult, bound / mult);
     }
 
     public static int getLastIndBelow(List<Integer> list, int threshold) {
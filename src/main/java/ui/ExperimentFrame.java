@@ -3,7 +3,7 @@ package ui;
 import enums.Task;
 import enums.Technique;
 import moose.Moose;
-import control.Server;
+import control.Session;
 import org.tinylog.Logger;
 import org.tinylog.TaggedLogger;
 
@@ -12,21 +12,19 @@ import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Path;
 
 import static tool.Constants.*;
 
 public class ExperimentFrame extends JFrame {
     private final TaggedLogger conLog = Logger.tag(getClass().getSimpleName());
 
-    public static String pID = "100";
-
     // Zoom -----------------------------------------------
     public static final int NUM_ZOOM_BLOCKS = 10;
     public static final int NUM_ZOOM_REPS = 5; // Repititions inside a block
 
-    public static int MAX_NOTCHES = 120; // Arbitrary (between Win 44 and Mac 300)
-    public static int[] TARGET_DISTS = new int[]{15, 30, 60}; // In notches
-    public static int NOTCHES_IN_ELEMENT = 6;
+    // Max. notches, target distances and notches in element are set in the Session
     public static final int TARGET_TOLERANCE = 3; //  Tolerance (in notches)
     public static final float MOOSE_MM_TO_NOTCH = 0.1f;
 
@@ -41,8 +39,9 @@ public class ExperimentFrame extends JFrame {
     private Rectangle scrBound;
     private int scrW, scrH;
     private int frW, frH;
-    public static int titleBarH;
+    private int titleBarH;
 
+    private final transient Session session;
     private Moose moose;
 
     private JDialog infoDialog;
@@ -50,9 +49,18 @@ public class ExperimentFrame extends JFrame {
     // ------------------------------------------------------------------------------------------
 
     /**
-     * Constructor
+     * Constructor (default Session)
      */
     public ExperimentFrame() {
+        this(Session.getDefault());
+    }
+
+    /**
+     * Constructor
+     * @param session Session run in this frame (closing the frame of the default Session exits)
+     */
+    public ExperimentFrame(Session session) {
+        this.session = session;
         setDisplayConfig();
         setBackground(Color.WHITE);
 
@@ -60,7 +68,7 @@ public class ExperimentFrame extends JFrame {
             @Override
             public void windowClosing(WindowEvent e) {
                 super.windowClosing(e);
-                Server.get().shutDown();
+                session.close();
             }
         });
 
@@ -73,8 +81,9 @@ public class ExperimentFrame extends JFrame {
     public void begin() {
         moose = new Moose();
 
-        Server.get().setMoose(moose);
-        Server.get().start();
+        session.getServer().setMoose(moose);
+        session.getServer().start();
+        new MouseRecorder(session.getServer(), this).install();
 
         titleBarH = getInsets().top;
 
@@ -84,7 +93,7 @@ public class ExperimentFrame extends JFrame {
             setVisible(true);
 
             // Create and show the info dialog
-            JPanel infoPanel = new InfoPanel(pID, showExperimentAction);
+            JPanel infoPanel = new InfoPanel(session.getPID(), showExperimentAction);
 
             infoDialog = new JDialog();
             infoDialog.add(infoPanel);
@@ -92,7 +101,8 @@ public class ExperimentFrame extends JFrame {
             infoDialog.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
             infoDialog.addWindowListener(new WindowAdapter() {
                 @Override public void windowClosed(WindowEvent e) {
-                    System.exit(0);
+                    if (session.isDefault()) System.exit(0);
+                    else dispose(); // Only this session ends
                 }
             });
             // Put the dialog in the center
@@ -108,6 +118,36 @@ public class ExperimentFrame extends JFrame {
 
     }
 
+    /**
+     * Replay a journaled session instead of running one (the Server is not started)
+     * @param journalDir Journal directory
+     * @param session Session name
+     * @param speed Speed multiplier (InputReplay.AS_FAST_AS_POSSIBLE = no waiting)
+     */
+    public void beginReplay(Path journalDir, String session, double speed) {
+        final InputReplay.TaskStart taskStart;
+        try {
+            taskStart = InputReplay.findTaskStart(journalDir, session);
+        } catch (IOException e) {
+            conLog.error("Can't read the journal: {}", e.getMessage());
+            return;
+        }
+        if (taskStart == null) {
+            conLog.error("No task in {}", session);
+            return;
+        }
+
+        moose = new Moose();
+        titleBarH = getInsets().top;
+        this.session.setSeed(taskStart.seed()); // Same trials as the recording
+
+        SwingUtilities.invokeLater(() -> {
+            setVisible(true);
+            showTask(findTask(taskStart.taskId()));
+            new InputReplay(journalDir, session, moose, getContentPane(), speed).start();
+        });
+    }
+
     // ------------------------------------------------------------------------------------------
     /**
      * Passed to the InfoPanel (called from there)
@@ -121,34 +161,55 @@ public class ExperimentFrame extends JFrame {
                     getValue(STRINGS.TECHNIQUE));
 
             // Get values from the info dialog
-            pID = (String) getValue(STRINGS.PID);
+            session.setPID((String) getValue(STRINGS.PID));
             Task task = (Task) getValue(STRINGS.TASK);
             Technique technique = (Technique) getValue(STRINGS.TECHNIQUE);
+            session.setTechnique(technique);
+            session.startResults(task);
 
-            SwingUtilities.invokeLater(() -> {
-                // Create the panel based on the chosen task
-                TaskPanel taskPanel = null;
-                switch (task) {
-                    case ZOOM_OUT, ZOOM_IN -> {
-                        taskPanel = new ZoomTaskPanel(getContentPane().getSize(), moose, task);
-                    }
-
-                    case PAN -> {
-                        taskPanel = new PanTaskPanel(getContentPane().getSize(), moose, task);
-                    }
-                }
-
-                // Open the frame with the panel
-                add(taskPanel);
+            // Seed the trials and journal it (for replay)
+            final long seed = System.nanoTime();
+            session.setSeed(seed);
+            session.getServer().markTask(task.getId(), seed);
 
+            SwingUtilities.invokeLater(() -> {
                 // Close the dialog
                 infoDialog.setVisible(false);
-                taskPanel.setVisible(true);
-                taskPanel.requestFocus();
+                showTask(task);
             });
         }
     };
 
+    /**
+     * Create and show the panel of a task
+     * @param task Task
+     */
+    private void showTask(Task task) {
+        // Create the panel based on the chosen task
+        TaskPanel taskPanel = null;
+        switch (task) {
+            case ZOOM_OUT, ZOOM_IN -> {
+                taskPanel = new ZoomTaskPanel(getContentPane().getSize(), session, moose, task);
+            }
+
+            case PAN -> {
+                taskPanel = new PanTaskPanel(getContentPane().getSize(), session, moose, task);
+            }
+        }
+
+        // Open the frame with the panel
+        add(taskPanel);
+        taskPanel.setVisible(true);
+        taskPanel.requestFocus();
+    }
+
+    private static Task findTask(int id) {
+        for (Task task : Task.values()) {
+            if (task.getId() == id) return task;
+        }
+        return Task.ZOOM_IN;
+    }
+
     // ------------------------------------------------------------------------------------------
 
     /**
@@ -156,7 +217,9 @@ public class ExperimentFrame extends JFrame {
      */
     private void setDisplayConfig() {
         setExtendedState(JFrame.MAXIMIZED_BOTH); // maximized frame
-        setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE); // close on exit
+        setDefaultCloseOperation(session.isDefault()
+                ? JFrame.EXIT_ON_CLOSE // close on exit
+                : JFrame.DISPOSE_ON_CLOSE); // Other sessions keep running
 
         GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
         GraphicsDevice[] gd = ge.getScreenDevices();
@@ -0,0 +1,281 @@
+package ui;
+
+import control.DeviceCaps;
+import control.InputJournal;
+import control.JitterBuffer;
+import moose.Memo;
+import moose.Moose;
+import org.tinylog.Logger;
+import org.tinylog.TaggedLogger;
+import tool.AsciiSequence;
+import tool.Constants.*;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a journaled task: the Moose stream into Moose.processMooseEvent and the mouse events into the viewports
+ * Replay starts at the TASK record (the panel must be created with its seed) and ends at the next TASK.
+ * The replay thread takes the place of the Server (the only Moose producer), so the Server is not started.
+ * Deltas go through a JitterBuffer as in the recording (delay from the TASK record, paced devices from their CAPS),
+ * on the recording's timeline, so they reach Moose at the times the Server released them.
+ */
+public class InputReplay implements Runnable {
+    private final TaggedLogger conLog = Logger.tag(getClass().getSimpleName());
+
+    public static final double AS_FAST_AS_POSSIBLE = 0; // Speed: no waiting between the records
+    private static final long HELD_CHECK_NS = 1_000_000; // Waiting for Moose to pass on its held deltas
+
+    //-- Start of a journaled task
+    public record TaskStart(int taskId, long seed, int jitterDelay) {}
+
+    private final Path dir;
+    private final String session;
+    private final Moose moose;
+    private final Container root;
+    private final double speed; // 1 = original timing
+
+    private final AsciiSequence textView = new AsciiSequence();
+    private boolean inTask;
+    private boolean taskEnded;
+    private long taskTime; // Arrival time of the TASK record (recording)
+    private long jitterDelay; // Playout delay of the recording (ns; 0 = off)
+    private final Map<Integer, DeviceCaps> deviceCaps = new HashMap<>(); // Key: device id (journaled CAPS)
+    private final Map<Integer, JitterBuffer> jitterBuffers = new HashMap<>(); // Key: device id
+    private long startTime; // System.nanoTime() of the replay start
+    private long nMemos;
+    private long nMouseEvents;
+
+    /**
+     * Constructor
+     * @param dir Journal directory
+     * @param session Session name
+     * @param moose Moose (receives the Memos)
+     * @param root Container of the task panel (where the viewports are looked up)
+     * @param speed Speed multiplier (1 = original timing, AS_FAST_AS_POSSIBLE = no waiting)
+     */
+    public InputReplay(Path dir, String session, Moose moose, Container root, double speed) {
+        this.dir = dir;
+        this.session = session;
+        this.moose = moose;
+        this.root = root;
+        this.speed = speed;
+    }
+
+    /**
+     * Find the first task of a journaled session
+     * @param dir Journal directory
+     * @param session Session name
+     * @return TaskStart (null if the session has no task)
+     * @throws IOException If the journal can't be read
+     */
+    public static TaskStart findTaskStart(Path dir, String session) throws IOException {
+        final TaskStart[] result = new TaskStart[1];
+        InputJournal.read(dir, session, (kind, deviceId, arrivalTime, payload) -> {
+            if (kind == InputJournal.TASK && result[0] == null) result[0] = readTaskStart(payload);
+        });
+        return result[0];
+    }
+
+    /**
+     * Read a TASK record (journals from before the jitter delay was recorded have none: 0)
+     * @param payload Payload of the record
+     * @return TaskStart
+     */
+    private static TaskStart readTaskStart(ByteBuffer payload) {
+        final int taskId = payload.getInt();
+        final long seed = payload.getLong();
+        final int jitterDelay = (payload.remaining() >= Integer.BYTES) ? payload.getInt() : 0;
+        return new TaskStart(taskId, seed, jitterDelay);
+    }
+
+    /**
+     * Start replaying (on its own thread)
+     */
+    public void start() {
+        new Thread(this, "Replay").start();
+    }
+
+    @Override
+    public void run() {
+        conLog.info("Replaying {} (speed {})", session, (speed > 0) ? speed : "max");
+        startTime = System.nanoTime();
+        try {
+            InputJournal.read(dir, session, this::onRecord);
+        } catch (IOException e) {
+            conLog.error("Replay stopped: {}", e.getMessage());
+        }
+        releaseDeltas(Long.MAX_VALUE); // Held at the end of the task
+        while (moose.hasHeldDeltas()) { // Merged while the EDT lagged
+            LockSupport.parkNanos(HELD_CHECK_NS);
+            moose.flushHeld(System.nanoTime());
+        }
+
+        final double duration = (System.nanoTime() - startTime) / 1e9;
+        conLog.info("Replay ended: {} Memos, {} mouse events in {} s (EDT dropped {}, merged {})",
+                nMemos, nMouseEvents, String.format("%.3f", duration),
+                moose.getDroppedCount(), moose.getMergedCount());
+    }
+
+    private void onRecord(byte kind, int deviceId, long arrivalTime, ByteBuffer payload) {
+        if (kind == InputJournal.TASK) {
+            if (inTask) taskEnded = true; // Only one task is replayed
+            else {
+                inTask = true;
+                taskTime = arrivalTime;
+                jitterDelay = TimeUnit.MILLISECONDS.toNanos(readTaskStart(payload).jitterDelay());
+            }
+            return;
+        }
+        if (!inTask || taskEnded) return;
+
+        releaseDeltas(arrivalTime);
+        waitUntil(arrivalTime);
+        moose.flushHeld(System.nanoTime());
+        switch (kind) {
+            case InputJournal.TEXT -> deliver(moose.obtainMemo().decode(textView.wrap(payload)), deviceId, false,
+                    arrivalTime);
+            case InputJournal.FRAME -> deliver(moose.obtainMemo().decodeFrame(payload), deviceId, false,
+                    arrivalTime);
+            case InputJournal.DATAGRAM -> {
+                final Memo memo = moose.obtainMemo();
+                if (payload.get(payload.position()) == Memo.FRAME_MARKER) {
+                    if (payload.remaining() < Memo.FRAME_SIZE) return;
+                    payload.get(); // Marker
+                    memo.decodeFrame(payload);
+                } else {
+                    memo.decode(textView.wrap(payload));
+                }
+                deliver(memo, deviceId, true, arrivalTime);
+            }
+            case InputJournal.MOUSE -> replayMouse(payload);
+            case InputJournal.TRIAL -> conLog.debug("Trial {} ended", payload.getInt());
+        }
+    }
+
+    /**
+     * Wait for the time of a record (relative to the task start, scaled by the speed)
+     * @param arrivalTime Arrival time of the record (recording)
+     */
+    private void waitUntil(long arrivalTime) {
+        if (speed <= 0) return;
+
+        final long due = startTime + (long) ((arrivalTime - taskTime) / speed);
+        long now;
+        while ((now = System.nanoTime()) < due) LockSupport.parkNanos(due - now);
+    }
+
+    /**
+     * Wait for the held deltas due up to a time and deliver them (in the order of their release)
+     * @param until Recording time (Long.MAX_VALUE = all of them)
+     */
+    private void releaseDeltas(long until) {
+        while (true) {
+            JitterBuffer next = null;
+            for (JitterBuffer buffer : jitterBuffers.values()) {
+                if (buffer.getSize() > 0 && (next == null || buffer.nextRelease() < next.nextRelease())) next = buffer;
+            }
+            if (next == null || next.nextRelease() > until) return;
+
+            final long release = next.nextRelease();
+            waitUntil(release);
+            moose.flushHeld(System.nanoTime());
+            moose.processMooseEvent(next.poll(release));
+            nMemos++;
+        }
+    }
+
+    /**
+     * Pass a Memo on like the Server does (only the events; deltas only from datagrams)
+     * @param memo Memo
+     * @param deviceId Device id (Moose.ANY_DEVICE = unknown sender)
+     * @param datagram From a datagram?
+     * @param arrivalTime Arrival time (recording)
+     */
+    private void deliver(Memo memo, int deviceId, boolean datagram, long arrivalTime) {
+        final boolean isDelta = memo.getAction().equals(STRINGS.SCROLL) || memo.getAction().equals(STRINGS.ZOOM);
+        final boolean isEvent = isDelta || (!datagram && memo.getAction().equals(STRINGS.CLICK));
+        if (!isEvent) {
+            if (memo.getAction().equals(STRINGS.CONNECTION) && memo.getMode().equals(STRINGS.CAPS)) {
+                deviceCaps.put(deviceId, DeviceCaps.LEGACY.withCaps(memo.getV1Int(), memo.getV2Int()));
+            }
+            moose.recycleMemo(memo);
+            return;
+        }
+
+        memo.setDeviceId(deviceId);
+        if (isDelta && hold(memo, deviceId, arrivalTime)) return;
+        moose.processMooseEvent(memo);
+        nMemos++;
+    }
+
+    /**
+     * Hold a delta in the device's JitterBuffer, if the Server did
+     * @param memo Delta
+     * @param deviceId Device id
+     * @param arrivalTime Arrival time (recording)
+     * @return True if held (delivered by releaseDeltas)
+     */
+    private boolean hold(Memo memo, int deviceId, long arrivalTime) {
+        if (jitterDelay <= 0 || deviceId == Moose.ANY_DEVICE) return false;
+        if (!deviceCaps.getOrDefault(deviceId, DeviceCaps.LEGACY).hasPacingClock()) return false;
+        return jitterBuffers.computeIfAbsent(deviceId, id -> new JitterBuffer()).offer(memo, arrivalTime, jitterDelay);
+    }
+
+    private void replayMouse(ByteBuffer payload) {
+        final int id = payload.getInt();
+        final int target = payload.getInt();
+        final int x = payload.getInt();
+        final int y = payload.getInt();
+        final int xOnScreen = payload.getInt();
+        final int yOnScreen = payload.getInt();
+        final int modifiers = payload.getInt();
+        final int button = payload.getInt();
+        final int clickCount = payload.getInt();
+        final int wheelRotation = payload.getInt();
+
+        nMouseEvents++;
+        SwingUtilities.invokeLater(() -> {
+            final Component component = findTarget(root, target);
+            if (component == null) return;
+
+            final long when = System.currentTimeMillis();
+            final MouseEvent event = (id == MouseEvent.MOUSE_WHEEL)
+                    ? new MouseWheelEvent(component, id, when, modifiers, x, y, xOnScreen, yOnScreen, clickCount,
+                    false, MouseWheelEvent.WHEEL_UNIT_SCROLL, 1, wheelRotation)
+                    : new MouseEvent(component, id, when, modifiers, x, y, xOnScreen, yOnScreen, clickCount,
+                    false, button);
+            component.dispatchEvent(event);
+        });
+    }
+
+    /**
+     * Find the showing viewport of a target (EDT)
+     * @param container Container to search
+     * @param target MouseRecorder target
+     * @return Component or null
+     */
+    private static Component findTarget(Container container, int target) {
+        for (Component c : container.getComponents()) {
+            if (!c.isShowing()) continue;
+            if ((target == MouseRecorder.TARGET_ZOOM && c instanceof ZoomViewport)
+                    || (target == MouseRecorder.TARGET_PAN && c instanceof PanViewPort)) {
+                return c;
+            }
+            if (c instanceof Container inner) {
+                final Component found = findTarget(inner, target);
+                if (found != null) return found;
+            }
+        }
+        return null;
+    }
+}
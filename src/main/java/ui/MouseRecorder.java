@@ -0,0 +1,75 @@
+package ui;
+
+import control.InputJournal;
+import control.Server;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.AWTEventListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.nio.ByteBuffer;
+
+/**
+ * Journals the mouse events of the viewports in one window (for replay)
+ * Payload: event id, target, x, y, x/y on screen, modifiers, button, click count, wheel rotation (ints).
+ */
+public class MouseRecorder implements AWTEventListener {
+    public static final long EVENT_MASK = AWTEvent.MOUSE_EVENT_MASK
+            | AWTEvent.MOUSE_MOTION_EVENT_MASK
+            | AWTEvent.MOUSE_WHEEL_EVENT_MASK;
+
+    //-- Targets
+    public static final int TARGET_ZOOM = 1; // ZoomViewport
+    public static final int TARGET_PAN = 2; // PanViewPort
+
+    public static final int PAYLOAD_SIZE = 10 * Integer.BYTES;
+
+    private final Server server; // Of the window's Session
+    private final Window window;
+    private final ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_SIZE); // EDT only
+
+    /**
+     * Constructor
+     * @param server Server (journals the events)
+     * @param window Window of the viewports (the listener sees the events of all the windows)
+     */
+    public MouseRecorder(Server server, Window window) {
+        this.server = server;
+        this.window = window;
+    }
+
+    /**
+     * Start recording (events are only written if the Server has a journal)
+     */
+    public void install() {
+        Toolkit.getDefaultToolkit().addAWTEventListener(this, EVENT_MASK);
+    }
+
+    @Override
+    public void eventDispatched(AWTEvent event) {
+        final InputJournal journal = server.getJournal();
+        if (journal == null || !(event instanceof MouseEvent e)) return;
+
+        final int target;
+        if (e.getSource() instanceof ZoomViewport) target = TARGET_ZOOM;
+        else if (e.getSource() instanceof PanViewPort) target = TARGET_PAN;
+        else return;
+        if (SwingUtilities.getWindowAncestor(e.getComponent()) != window) return; // Another session
+
+        payload.clear();
+        payload.putInt(e.getID());
+        payload.putInt(target);
+        payload.putInt(e.getX());
+        payload.putInt(e.getY());
+        payload.putInt(e.getXOnScreen());
+        payload.putInt(e.getYOnScreen());
+        payload.putInt(e.getModifiersEx());
+        payload.putInt(e.getButton());
+        payload.putInt(e.getClickCount());
+        payload.putInt((e instanceof MouseWheelEvent we) ? we.getWheelRotation() : 0);
+        payload.flip();
+
+        journal.append(InputJournal.MOUSE, 0, System.nanoTime(), payload);
+    }
+}
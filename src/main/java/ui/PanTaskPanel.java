@@ -1,6 +1,6 @@
 package ui;
 
-import control.Logex;
+import control.Session;
 import enums.Task;
 import enums.TrialEvent;
 import enums.TrialStatus;
@@ -14,9 +14,6 @@ import tool.Utils;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
-import java.util.Random;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import static tool.Constants.*;
 
@@ -42,16 +39,17 @@ public class PanTaskPanel extends TaskPanel {
     /**
      * Constructor
      * @param dim Dimension – Desired dimension of the panel
+     * @param session Session – Settings, logs and random numbers
      * @param ms Moose – Reference to the Moose
      * @param tsk Task – Type of the task
      */
-    public PanTaskPanel(Dimension dim, Moose ms, Task tsk) {
-        super(dim);
+    public PanTaskPanel(Dimension dim, Session session, Moose ms, Task tsk) {
+        super(dim, session);
 
         setSize(dim);
         setLayout(null);
 
-        startOnLeft = new Random().nextBoolean(); // Randomly choose whether to start traials on the left or right
+        startOnLeft = session.random().nextBoolean(); // Randomly choose whether to start traials on the left or right
         lrMargin = Utils.mm2px(ExperimentFrame.LR_MARGIN_MM);
         pvpSize = Utils.mm2px(VP_SIZE_mm);
 
@@ -67,7 +65,7 @@ public class PanTaskPanel extends TaskPanel {
         super.createBlocks();
 
         for (int i = 0; i < ExperimentFrame.NUM_PAN_BLOCKS; i++) {
-            blocks.add(new BaseBlock(i + 1, task, 1));
+            blocks.add(new BaseBlock(session, i + 1, task, 1));
         }
     }
 
@@ -118,13 +116,10 @@ public class PanTaskPanel extends TaskPanel {
         add(errLabel, JLayeredPane.PALETTE_LAYER);
         repaint();
 
-        // Disappear after set time
-        new Timer().schedule(new TimerTask() {
-            @Override
-            public void run() {
-                endTrial(TrialStatus.ERROR);
-            }
-        }, ERROR_DURATION);
+        // Disappear after set time (Swing Timer: the trial ends on the EDT)
+        final Timer errorTimer = new Timer(ERROR_DURATION, e -> endTrial(TrialStatus.ERROR));
+        errorTimer.setRepeats(false);
+        errorTimer.start();
 
     }
 
@@ -142,7 +137,7 @@ public class PanTaskPanel extends TaskPanel {
 //        progressLabel.setVisible(true);
 
         // Create the viewport for showing the trial
-        panViewPort = new PanViewPort(moose, (PanTrial) activeTrial, onFinishTrialAction);
+        panViewPort = new PanViewPort(session, moose, (PanTrial) activeTrial, onFinishTrialAction);
         panViewPort.setBorder(BORDERS.BLACK_BORDER);
         Point position = findPositionForViewport(activeTrial.trialNum);
         panViewPort.setBounds(position.x, position.y, pvpSize, pvpSize);
@@ -150,7 +145,7 @@ public class PanTaskPanel extends TaskPanel {
         add(panViewPort, JLayeredPane.PALETTE_LAYER);
 
         // Set up the Logex for this trial
-        Logex.get().activateTrial(activeTrial);
+        session.getLogex().activateTrial(activeTrial);
     }
 
     /**
@@ -163,8 +158,8 @@ public class PanTaskPanel extends TaskPanel {
         position.y = (getHeight() - pvpSize) / 2; // Center
         conLog.trace("PanelH = {}; TitleBarH = {}; ZVPSize = {}; Center = {}",
                 getHeight(), getInsets().top, pvpSize, position.y);
-        int randLeftX = new Random().nextInt(lrMargin, getWidth()/2 - pvpSize);
-        int randRightX = new Random().nextInt(getWidth()/2, getWidth() - lrMargin - pvpSize);
+        int randLeftX = session.random().nextInt(lrMargin, getWidth()/2 - pvpSize);
+        int randRightX = session.random().nextInt(getWidth()/2, getWidth() - lrMargin - pvpSize);
         if (startOnLeft) {
             if (trNum % 2 == 1) position.x = randLeftX; // Trials 1, 3, ... are on left
             else position.x = randRightX; // Trials 2, 4, ... on right
@@ -190,7 +185,7 @@ public class PanTaskPanel extends TaskPanel {
                     showError("The curve must not be outside for more than 10% of the time!");
                 }
             } else {
-                double firstPanToLastPan = Logex.get().getDurationSec(
+                double firstPanToLastPan = session.getLogex().getDurationSec(
                         TrialEvent.getFirst(TrialEvent.PAN),
                         TrialEvent.getLast(TrialEvent.PAN));
 
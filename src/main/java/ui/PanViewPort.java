@@ -1,14 +1,12 @@
 package ui;
 
 import com.google.common.base.Stopwatch;
-import com.kitfox.svg.SVGCache;
-import com.kitfox.svg.SVGDiagram;
 import com.kitfox.svg.SVGException;
-import com.kitfox.svg.SVGRoot;
 import com.kitfox.svg.animation.AnimationElement;
 import com.kitfox.svg.app.beans.SVGIcon;
 import com.kitfox.svg.app.beans.SVGPanel;
 import control.Logex;
+import control.Session;
 import enums.TrialEvent;
 import enums.TrialStatus;
 import listener.MooseListener;
@@ -17,6 +15,7 @@ import moose.Memo;
 import moose.Moose;
 import org.tinylog.Logger;
 import org.tinylog.TaggedLogger;
+import tool.StimulusCache;
 import tool.Utils;
 
 import javax.swing.*;
@@ -26,8 +25,6 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.net.URI;
-import java.time.Duration;
-import java.time.Instant;
 
 import static tool.Constants.*;
 
@@ -37,12 +34,14 @@ public class PanViewPort extends JPanel implements MouseListener, MouseMotionLis
     private final int BLINKER_DELAY = 50; // ms
 
     //-- Trial
+    private final transient Session session;
     private final PanTrial trial;
     private final AbstractAction endTrialAction; // Received from higher levels
     private int nScansCurveInsideFocus, nScans;
 
     // View
     private final SVGIcon icon;
+    private URI diagramURI; // Prepared for this trial (shared, read-only)
     private int rotate;
     private Point dragPoint;
     private Integer xDiff;
@@ -90,11 +89,14 @@ public class PanViewPort extends JPanel implements MouseListener, MouseMotionLis
 
     /**
      * Constructor
+     * @param session Session
      * @param pt PanTrial
      * @param endTrAction AbstractAction
      */
-    public PanViewPort(Moose moose, PanTrial pt, AbstractAction endTrAction) {
+    public PanViewPort(Session session, Moose moose, PanTrial pt, AbstractAction endTrAction) {
+        this.session = session;
         icon = new SVGIcon();
+        icon.setSvgUniverse(StimulusCache.getUniverse());
         icon.setAntiAlias(true);
         icon.setAutosize(SVGPanel.AUTOSIZE_NONE);
 
@@ -132,7 +134,6 @@ public class PanViewPort extends JPanel implements MouseListener, MouseMotionLis
      */
     public void startTrial(URI uri, int rotation) {
 
-        icon.setSvgURI(uri);
         rotate = rotation;
         xDiff = null;
         yDiff = null;
@@ -140,24 +141,34 @@ public class PanViewPort extends JPanel implements MouseListener, MouseMotionLis
         focusArea.setActive(false);
         isTrialActive = true;
 
-        SVGDiagram diagram = SVGCache.getSVGUniverse().getDiagram(uri);
-        SVGRoot root = diagram.getRoot();
-
-        StringBuilder builder = new StringBuilder();
-        builder.append("\"rotate(").append(rotate).append(" ").append(startPosX).append(" ").append(startPosY).append(")\"");
-        try {
-            if (root.hasAttribute("transform", AnimationElement.AT_XML)) {
-                root.setAttribute("transform", AnimationElement.AT_XML, builder.toString());
-            } else {
-                root.addAttribute("transform", AnimationElement.AT_XML, builder.toString());
+        // Get the svg rotated for this trial (prepared once, shared by the sessions)
+        final URI previousURI = diagramURI;
+        diagramURI = StimulusCache.getDiagram(uri, "rot" + rotate, root -> {
+            StringBuilder builder = new StringBuilder();
+            builder.append("\"rotate(").append(rotate).append(" ").append(startPosX).append(" ").append(startPosY).append(")\"");
+            try {
+                if (root.hasAttribute("transform", AnimationElement.AT_XML)) {
+                    root.setAttribute("transform", AnimationElement.AT_XML, builder.toString());
+                } else {
+                    root.addAttribute("transform", AnimationElement.AT_XML, builder.toString());
+                }
+                root.updateTime(0f);
+            } catch (SVGException ignored) {
             }
-            root.updateTime(0f);
-        } catch (SVGException ignored) {
-        }
+        });
+        StimulusCache.releaseDiagram(previousURI);
+        icon.setSvgURI(diagramURI);
 
         repaint();
     }
 
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        StimulusCache.releaseDiagram(diagramURI); // Trial is over (the viewport isn't added again)
+        diagramURI = null;
+    }
+
 
     /**
      * Check whether the trial is at the end (circle is inside focus area)
@@ -200,7 +211,7 @@ public class PanViewPort extends JPanel implements MouseListener, MouseMotionLis
      */
     private void scanFocusAreaForCurve(int[] focusPixels) {
         // Has the curve entered the focus area?
-        boolean focusEntered = Logex.get().hasLogged(TrialEvent.getFirst(TrialEvent.FOCUS_ENTER));
+        boolean focusEntered = session.getLogex().hasLogged(TrialEvent.Code.FOCUS_ENTER);
 
         // Check if line is inside focus area
         if (focusEntered) nScans++; // Only count after entering the focus area
@@ -252,7 +263,7 @@ public class PanViewPort extends JPanel implements MouseListener, MouseMotionLis
      * @param dY Delta-Y
      */
     public void translate(int dX, int dY) {
-        Logex.get().logEvent(TrialEvent.PAN); // LOG
+        session.getLogex().logEvent(TrialEvent.Code.PAN, (float) Math.hypot(dX, dY)); // LOG (distance in px)
 
         this.xDiff += dX;
         this.yDiff += dY;
@@ -262,10 +273,10 @@ public class PanViewPort extends JPanel implements MouseListener, MouseMotionLis
         repaint();
 
         if (isTrialFinished()) {
-            Duration totalTrialDuration = Duration.between(
-                    Logex.get().getTrialInstant(TrialEvent.getFirst(TrialEvent.FOCUS_ENTER)),
-                    Instant.now());
-            conLog.debug("Duration = {}", totalTrialDuration);
+            final long focusTime = session.getLogex().getFirstTime(TrialEvent.Code.FOCUS_ENTER);
+            if (focusTime != Logex.NOT_LOGGED) {
+                conLog.debug("Duration = {} ms", (System.nanoTime() - focusTime) / 1e6);
+            }
             // < 90% of the curve traversed inside the focus area => error
             ActionEvent endTrialEvent = (wasTrialAccurate())
                     ? new ActionEvent(this, TrialStatus.HIT, "")
@@ -408,9 +419,9 @@ public class PanViewPort extends JPanel implements MouseListener, MouseMotionLis
     // Logs ------------------------------------------------------------------------
     private void logInsideFocus() {
         // If hasn't entered before or has exited before
-        if (!Logex.get().hasLoggedKey(TrialEvent.FOCUS_ENTER) ||
-                Logex.get().hasLoggedKey(TrialEvent.FOCUS_EXIT)) {
-            Logex.get().logEvent(TrialEvent.FOCUS_ENTER);
+        if (!session.getLogex().hasLogged(TrialEvent.Code.FOCUS_ENTER) ||
+                session.getLogex().hasLogged(TrialEvent.Code.FOCUS_EXIT)) {
+            session.getLogex().logEvent(TrialEvent.Code.FOCUS_ENTER);
 
             // Start the stopwatch (if not already started)
             if (!insideFocusStopwatch.isRunning()) insideFocusStopwatch.start();
@@ -420,8 +431,8 @@ public class PanViewPort extends JPanel implements MouseListener, MouseMotionLis
 
     private void logOutsideFocus() {
         // If hasn't exited before or has entered before
-        if (Logex.get().hasLoggedKey(TrialEvent.FOCUS_ENTER)) {
-            Logex.get().logEvent(TrialEvent.FOCUS_EXIT);
+        if (session.getLogex().hasLogged(TrialEvent.Code.FOCUS_ENTER)) {
+            session.getLogex().logEvent(TrialEvent.Code.FOCUS_EXIT);
 
             // Start the stopwatch (if not already started)
             if (insideFocusStopwatch.isRunning()) insideFocusStopwatch.stop();
@@ -1,6 +1,8 @@
 package ui;
 
-import control.Logex;
+import control.Session;
+import control.TrialResult;
+import control.TrialWriter;
 import enums.TrialEvent;
 import enums.TrialStatus;
 import model.BaseBlock;
@@ -23,6 +25,7 @@ public class TaskPanel extends JLayeredPane {
     private final TaggedLogger conLog = Logger.tag(getClass().getSimpleName());
 
     // Experiment
+    protected final transient Session session;
     protected ArrayList<BaseBlock> blocks = new ArrayList<>();
     protected BaseBlock activeBlock;
     protected BaseTrial activeTrial;
@@ -31,7 +34,8 @@ public class TaskPanel extends JLayeredPane {
     JLabel progressLabel = new JLabel();
     JLabel endTaskLabel = new JLabel();
 
-    public TaskPanel(Dimension dim) {
+    public TaskPanel(Dimension dim, Session session) {
+        this.session = session;
         conLog.trace("Width: {}", getWidth());
         progressLabel.setBounds(dim.width - 300, 50, 300, 30);
         progressLabel.setFont(new Font(progressLabel.getFont().getFontName(), Font.PLAIN, 20));
@@ -68,9 +72,17 @@ public class TaskPanel extends JLayeredPane {
 
 
     protected void endTrial(int status) {
-        Logex.get().logEvent(TrialEvent.TRIAL_CLOSE);
-        double openToClose = Logex.get().getDurationSec(TrialEvent.TRIAL_OPEN, TrialEvent.TRIAL_CLOSE);
+        session.getLogex().logEvent(TrialEvent.Code.TRIAL_CLOSE);
+        session.getServer().markTrial(activeTrial.trialNum);
+        double openToClose = session.getLogex().getDurationSec(TrialEvent.TRIAL_OPEN, TrialEvent.TRIAL_CLOSE);
         conLog.info("Time: Open to Close = {}", openToClose);
+        conLog.debug("Events in the trial: {}", session.getLogex().getEventCount());
+
+        // Save the result (written on the writer's thread)
+        final TrialWriter trialWriter = session.getTrialWriter();
+        if (trialWriter != null) {
+            trialWriter.write(TrialResult.of(session, activeTrial, status, session.getLogex()));
+        }
         conLog.info("--------------------------");
         if (status == TrialStatus.HIT) {
             if (activeBlock.isBlockFinished(activeTrial.trialNum)) { // Block finished -> show break|end
@@ -1,6 +1,6 @@
 package ui;
 
-import control.Logex;
+import control.Session;
 import enums.ErrorEvent;
 import enums.Task;
 import enums.TrialEvent;
@@ -14,14 +14,13 @@ import org.tinylog.Logger;
 import org.tinylog.TaggedLogger;
 import tool.MoCoord;
 import tool.MoDimension;
-import tool.MoSVG;
+import tool.StimulusCache;
 import tool.Utils;
 
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.util.ArrayList;
-import java.util.Random;
 
 import static tool.Constants.*;
 import static ui.ExperimentFrame.*;
@@ -41,7 +40,6 @@ public class ZoomTaskPanel
 //    public static final int ZOOM_N_ELEMENTS = 31; // # elements in rows = columns
 //    public static final int ELEMENT_NOTCH_RATIO = 3;
     public static final double NOTCH_MM = 1;
-    public static int N_ELEMENTS;
 //    public static final int N_ELEMENTS = (ExperimentFrame.TOTAL_N_NOTCHES / ELEMENT_NOTCH_RATIO) * 2 + 1;
     public static final int ZOOM_OUT_ELEMENT_SIZE = 80; // Diameter of the elements (px)
     public static final int ZOOM_IN_ELEMENT_SIZE = 170; // W of the elements (px)
@@ -68,16 +66,17 @@ public class ZoomTaskPanel
     /**
      * Constructor
      * @param dim Dimension – Desired dimension of the panel
+     * @param session Session – Settings, logs and random numbers
      * @param ms Moose – Reference to the Moose
      * @param tsk Task – Type of the task
      */
-    public ZoomTaskPanel(Dimension dim, Moose ms, Task tsk) {
-        super(dim);
+    public ZoomTaskPanel(Dimension dim, Session session, Moose ms, Task tsk) {
+        super(dim, session);
 
         setSize(dim);
         setLayout(null);
 
-        startOnLeft = new Random().nextBoolean(); // Randomly choose whether to start traials on the left or right
+        startOnLeft = session.random().nextBoolean(); // Randomly choose whether to start traials on the left or right
         zvpSize = Utils.mm2px(VIEWPPORT_SIZE_mm);
         lrMargin = Utils.mm2px(ExperimentFrame.LR_MARGIN_MM);
 
@@ -87,17 +86,17 @@ public class ZoomTaskPanel
         createBlocks();
 
         // Generate the zooming SVG
-        N_ELEMENTS = (ExperimentFrame.MAX_NOTCHES / ExperimentFrame.NOTCHES_IN_ELEMENT) * 2 + 1;
+        final int N_ELEMENTS = session.getNZoomElements();
 //        final int N_ELEMENTS = (ExperimentFrame.TOTAL_N_NOTCHES / ELEMENT_NOTCH_RATIO) + 1;
-        if (task.equals(Task.ZOOM_IN)) {
-            MoSVG.genCircleGrid(
+        if (task.equals(Task.ZOOM_IN)) { // Generated once for all the sessions (same parameters)
+            StimulusCache.genCircleGrid(
                     ZOOM_IN_SVG_FILE_NAME,
                     N_ELEMENTS,
                     ZOOM_IN_ELEMENT_SIZE,
                     0,
                     COLORS.BLUE);
         } else {
-            MoSVG.genCircleGrid(
+            StimulusCache.genCircleGrid(
                     ZOOM_OUT_SVG_FILE_NAME,
                     N_ELEMENTS,
                     ZOOM_OUT_ELEMENT_SIZE,
@@ -137,7 +136,7 @@ public class ZoomTaskPanel
         super.createBlocks();
 
         for (int i = 0; i < NUM_ZOOM_BLOCKS; i++) {
-            blocks.add(new BaseBlock(i + 1, task, NUM_ZOOM_REPS));
+            blocks.add(new BaseBlock(session, i + 1, task, NUM_ZOOM_REPS));
         }
     }
 
@@ -171,7 +170,7 @@ public class ZoomTaskPanel
         // Create the viewport for showing the trial
 //        zoomViewPort = new ZoomViewport(moose, (ZoomTrial) activeTrial, zoomElements, endTrialAction);
         MoDimension moDim = new MoDimension(zvpSize);
-        zoomViewPort = new ZoomViewport(moDim, moose, (ZoomTrial) activeTrial, endTrialAction);
+        zoomViewPort = new ZoomViewport(moDim, session, moose, (ZoomTrial) activeTrial, endTrialAction);
         Point position = findPositionForViewport(activeTrial.trialNum);
         zoomViewPort.setLocation(position);
 //        zoomViewPort.setBounds(position.x, position.y, zvpSize, zvpSize);
@@ -179,8 +178,8 @@ public class ZoomTaskPanel
         add(zoomViewPort, PALETTE_LAYER);
 
         // Log
-        Logex.get().activateTrial(activeTrial);
-        Logex.get().logEvent(TrialEvent.TRIAL_OPEN);
+        session.getLogex().activateTrial(activeTrial);
+        session.getLogex().logEvent(TrialEvent.Code.TRIAL_OPEN);
     }
 
     /**
@@ -193,8 +192,8 @@ public class ZoomTaskPanel
         position.y = (getHeight() - zvpSize) / 2; // Center
         conLog.trace("PanelH = {}; TitleBarH = {}; ZVPSize = {}; Center = {}",
                 getHeight(), getInsets().top, zvpSize, position.y);
-        int randLeftX = new Random().nextInt(lrMargin, getWidth()/2 - zvpSize);
-        int randRightX = new Random().nextInt(getWidth()/2, getWidth() - lrMargin - zvpSize);
+        int randLeftX = session.random().nextInt(lrMargin, getWidth()/2 - zvpSize);
+        int randRightX = session.random().nextInt(getWidth()/2, getWidth() - lrMargin - zvpSize);
         if (startOnLeft) {
             if (trNum % 2 == 1) position.x = randLeftX; // Trials 1, 3, ... are on left
             else position.x = randRightX; // Trials 2, 4, ... on right
@@ -210,17 +209,17 @@ public class ZoomTaskPanel
     private final AbstractAction endTrialAction = new AbstractAction() {
         @Override
         public void actionPerformed(ActionEvent e) {
-            Logex.get().logEvent(TrialEvent.SPACE_PRESS);
-            double enterToSpace = Logex.get().getDurationSec(
+            session.getLogex().logEvent(TrialEvent.Code.SPACE_PRESS);
+            double enterToSpace = session.getLogex().getDurationSec(
                     TrialEvent.getLast(TrialEvent.VIEWPORT_ENTER),
                     TrialEvent.SPACE_PRESS);
-            double firstZoomToSpace = Logex.get().getDurationSec(
+            double firstZoomToSpace = session.getLogex().getDurationSec(
                     TrialEvent.getFirst(TrialEvent.ZOOM),
                     TrialEvent.SPACE_PRESS);
-            double enterToLastZoom = Logex.get().getDurationSec(
+            double enterToLastZoom = session.getLogex().getDurationSec(
                     TrialEvent.getLast(TrialEvent.VIEWPORT_ENTER),
                     TrialEvent.getLast(TrialEvent.ZOOM));
-            double firstZoomToLastZoom = Logex.get().getDurationSec(
+            double firstZoomToLastZoom = session.getLogex().getDurationSec(
                     TrialEvent.getFirst(TrialEvent.ZOOM),
                     TrialEvent.getLast(TrialEvent.ZOOM));
 
@@ -264,7 +263,7 @@ public class ZoomTaskPanel
     @Override
     public void mouseMoved(MouseEvent e) {
         // Log movement AFTER trial has been opened
-        if (Logex.get().hasLogged(TrialEvent.TRIAL_OPEN)) Logex.get().logEvent(TrialEvent.MOVE);
+        if (session.getLogex().hasLogged(TrialEvent.Code.TRIAL_OPEN)) session.getLogex().logEvent(TrialEvent.Code.MOVE);
     }
 
     @Override
@@ -275,7 +274,7 @@ public class ZoomTaskPanel
     // Moose --------------------------------------------------------------------------------------
     @Override
     public void mooseClicked(Memo mem) {
-        Logex.get().logError(ErrorEvent.CLICK, ErrorEvent.OUTSIDE_ZVP);
+        session.getLogex().logError(ErrorEvent.Code.CLICK, ErrorEvent.OUTSIDE_ZVP);
         // TODO Show error (no Moose clicking)
     }
 
@@ -286,7 +285,7 @@ public class ZoomTaskPanel
 
     @Override
     public void mooseWheelMoved(Memo mem) {
-        Logex.get().logError(ErrorEvent.CLICK, ErrorEvent.OUTSIDE_ZVP);
+        session.getLogex().logError(ErrorEvent.Code.CLICK, ErrorEvent.OUTSIDE_ZVP);
         // TODO Show error if not over ViewPort
     }
 
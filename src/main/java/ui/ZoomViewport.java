@@ -4,7 +4,7 @@ import com.kitfox.svg.*;
 import com.kitfox.svg.animation.AnimationElement;
 import com.kitfox.svg.app.beans.SVGIcon;
 import com.kitfox.svg.app.beans.SVGPanel;
-import control.Logex;
+import control.Session;
 import enums.ErrorEvent;
 import enums.Task;
 import enums.TrialEvent;
@@ -24,7 +24,6 @@ import java.awt.*;
 import java.awt.event.*;
 import java.net.URI;
 import java.nio.file.Paths;
-import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.List;
@@ -39,6 +38,7 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
 
     private final int BLINKER_DELAY = 100; // ms
 
+    private final transient Session session;
     private final ZoomTrial trial;
 //    private final ArrayList<MoCoord> zoomElements;
     private final AbstractAction endTrialAction; // Received from higher levels
@@ -46,7 +46,7 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
     private Boolean firstZoomInRightDirection;
     private boolean hasFocus;
     private int svgSize;
-    private double nVisibleEl = ZoomTaskPanel.N_ELEMENTS;
+    private double nVisibleEl;
     private float currentNotch;
 
     // Background panel (used for the border)
@@ -54,8 +54,8 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
 
     // Tools
     private Robot robot;
-    private final URI svgURI;
-    private SVGRoot svgRoot;
+    private final URI svgURI; // Source
+    private URI trialURI; // Prepared for this trial (shared, read-only)
     private final SVGIcon svgIcon;
 
     // Visual
@@ -94,10 +94,14 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
 
     /**
      * Constructor
+     * @param session Session
      * @param zTrial ZoomTrial
      * @param endTrAction AbstractAction
      */
-    public ZoomViewport(Moose moose, ZoomTrial zTrial, ArrayList<MoCoord> zElements, AbstractAction endTrAction) {
+    public ZoomViewport(Session session, Moose moose, ZoomTrial zTrial, ArrayList<MoCoord> zElements,
+                        AbstractAction endTrAction) {
+        this.session = session;
+        nVisibleEl = session.getNZoomElements();
         trial = zTrial;
 //        zoomElements = new ArrayList<>(zElements);
         endTrialAction = endTrAction;
@@ -124,6 +128,7 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
 //        svgURI = Paths.get(path).toUri();
         svgURI = Resources.SVG.SIMPLE_SVG;
         svgIcon = new SVGIcon();
+        svgIcon.setSvgUniverse(StimulusCache.getUniverse());
         svgIcon.setAntiAlias(true);
         svgIcon.setAutosize(SVGPanel.AUTOSIZE_BESTFIT);
 
@@ -154,7 +159,9 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
         moose.addMooseListener(this);
     }
 
-    public ZoomViewport(Dimension dim, Moose moose, ZoomTrial zTrial, AbstractAction endTrAction) {
+    public ZoomViewport(Dimension dim, Session session, Moose moose, ZoomTrial zTrial, AbstractAction endTrAction) {
+        this.session = session;
+        nVisibleEl = session.getNZoomElements();
         trial = zTrial;
         endTrialAction = endTrAction;
         conLog.info("Trial: {}", trial);
@@ -173,6 +180,7 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
         // Load the svg
         svgURI = Resources.SVG.ZOOM_IN_URI;
         svgIcon = new SVGIcon();
+        svgIcon.setSvgUniverse(StimulusCache.getUniverse());
         svgIcon.setAntiAlias(true);
         svgIcon.setAutosize(SVGPanel.AUTOSIZE_BESTFIT);
     }
@@ -183,57 +191,24 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
 
         if (aFlag) {
             // Log
-            Logex.get().logEvent(TrialEvent.TRIAL_OPEN);
+            session.getLogex().logEvent(TrialEvent.Code.TRIAL_OPEN);
 
             // Find the target elements (to be colored green)
             final ArrayList<MoCoord> targetCoords = findTargetElements();
             conLog.trace("Targets: {}", targetCoords);
             final ArrayList<MoCoord> errorCoords = findErrorElements();
 
-            // Remove the SVG document from the cache to prepare for reloading
-            SVGCache.getSVGUniverse().removeDocument(svgURI);
-
-            // Load the svg and set the init info
-            svgIcon.setSvgURI(svgURI);
-            svgRoot = SVGCache.getSVGUniverse().getDiagram(svgURI).getRoot();
-
-            // Testing
-//            String id = String.format("r%d_c%d", 1, 34);
-//            SVGElement element = svgRoot.getChild(id);
-//            try {
-//                if (element != null) {
-//                    element.setAttribute("fill", AnimationElement.AT_XML,
-//                            COLORS.getHex(COLORS.GREEN));
-//                }
-//            } catch (SVGException ignored) {
-//                conLog.error("Element not found!");
-//            }
-
-            // Color the elements
-            for (MoCoord coord : targetCoords) {
-                String id = String.format("r%d_c%d", coord.x, coord.y);
-                SVGElement element = svgRoot.getChild(id);
-                try {
-                    if (element != null) {
-                        element.setAttribute("fill", AnimationElement.AT_XML,
-                                COLORS.getHex(COLORS.GREEN));
-                    }
-                } catch (SVGException ignored) {
-                    conLog.error("Element not found!");
-                }
-            }
-
-            for (MoCoord coord : errorCoords) {
-                String id = String.format("r%d_c%d", coord.x, coord.y);
-                SVGElement element = svgRoot.getChild(id);
-                try {
-                    if (element != null) {
-                        element.setAttribute("fill", AnimationElement.AT_XML,
-                                COLORS.getHex(COLORS.BLACK));
-                    }
-                } catch (SVGException ignored) {
-                }
-            }
+            // Get the svg colored for this target (prepared once, shared by the sessions)
+            final String variant = String.format("t%d_tol%d_nie%d_n%d",
+                    trial.targetNotch, ExperimentFrame.TARGET_TOLERANCE,
+                    session.getNotchesInElement(), session.getNZoomElements());
+            final URI previousURI = trialURI;
+            trialURI = StimulusCache.getDiagram(svgURI, variant, root -> {
+                colorElements(root, targetCoords, COLORS.GREEN);
+                colorElements(root, errorCoords, COLORS.BLACK);
+            });
+            StimulusCache.releaseDiagram(previousURI);
+            svgIcon.setSvgURI(trialURI);
 
             // Set the init at the start notch
 //            currentNotch = trial.startNotch;
@@ -242,6 +217,33 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
         }
     }
 
+    @Override
+    public void removeNotify() {
+        super.removeNotify();
+        StimulusCache.releaseDiagram(trialURI); // Trial is over (the viewport isn't added again)
+        trialURI = null;
+    }
+
+    /**
+     * Color the elements of the svg
+     * @param root SVGRoot
+     * @param coords List of MoCoord (r, c)
+     * @param color Color
+     */
+    private void colorElements(SVGRoot root, List<MoCoord> coords, Color color) {
+        for (MoCoord coord : coords) {
+            String id = String.format("r%d_c%d", coord.x, coord.y);
+            SVGElement element = root.getChild(id);
+            try {
+                if (element != null) {
+                    element.setAttribute("fill", AnimationElement.AT_XML, COLORS.getHex(color));
+                }
+            } catch (SVGException ignored) {
+                conLog.error("Element not found!");
+            }
+        }
+    }
+
     /**
      * Calculate and return the list of (r,c) to set as target
      * @return Map (keys: rows, values: cols)
@@ -249,9 +251,9 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
     private ArrayList<MoCoord> findTargetElements() {
         ArrayList<MoCoord> result = new ArrayList<>();
 
-        final int EL_NOTCH_RATIO = ExperimentFrame.NOTCHES_IN_ELEMENT;
+        final int EL_NOTCH_RATIO = session.getNotchesInElement();
         final int NOTCH_TOL = ExperimentFrame.TARGET_TOLERANCE;
-        final int N_ELEMENTS = ZoomTaskPanel.N_ELEMENTS;
+        final int N_ELEMENTS = session.getNZoomElements();
         final int lastElement = N_ELEMENTS - 1;
 
         // Top side
@@ -309,8 +311,8 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
         ArrayList<MoCoord> result = new ArrayList<>();
 
         final int tol = ExperimentFrame.TARGET_TOLERANCE;
-        final int notchInElement = ExperimentFrame.NOTCHES_IN_ELEMENT;
-        final int centerElement = ZoomTaskPanel.N_ELEMENTS / 2 + 1;
+        final int notchInElement = session.getNotchesInElement();
+        final int centerElement = session.getNZoomElements() / 2 + 1;
 
         // Sort the target elements' X
 //        final List<Integer> targetList = new ArrayList<>();
@@ -399,33 +401,44 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
      */
     private int findSVGSize(float dNotch) {
 //        conLog.info("dVisibleEl = {}", dVisibleEl);
-        if (Utils.isBetween(currentNotch + dNotch, 0, ExperimentFrame.MAX_NOTCHES, "11")) {
-            nVisibleEl -= ((double) 1 / ExperimentFrame.NOTCHES_IN_ELEMENT) * 2 * dNotch; // 2 for both sides
+        if (Utils.isBetween(currentNotch + dNotch, 0, session.getMaxNotches(), "11")) {
+            nVisibleEl -= ((double) 1 / session.getNotchesInElement()) * 2 * dNotch; // 2 for both sides
             currentNotch += dNotch;
         } else if (currentNotch + dNotch < 0) {
-            nVisibleEl = ZoomTaskPanel.N_ELEMENTS;
+            nVisibleEl = session.getNZoomElements();
             currentNotch = 0;
         } else {
             nVisibleEl = 1;
-            currentNotch = ExperimentFrame.MAX_NOTCHES;
+            currentNotch = session.getMaxNotches();
         }
 
         conLog.trace("dNotch = {} -> currentNotch = {} -> nVisibleEl = {}",
                 dNotch, currentNotch, nVisibleEl);
         double cirSize = getWidth() / nVisibleEl;
-        return (int) (cirSize * ZoomTaskPanel.N_ELEMENTS);
+        return (int) (cirSize * session.getNZoomElements());
     }
 
     // -------------------------------------------------------------------------------------------
     private class ZoomView extends JPanel {
+        private int paintedSize; // svgSize of the last paint
 
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
             conLog.info("Painting ZoomView");
+            if (trialURI == null) return;
+
             svgIcon.setPreferredSize(new Dimension(svgSize, svgSize));
-            int newCoord = - (svgSize - getWidth()) / 2;
-            svgIcon.paintIcon(this, g, newCoord, newCoord);
+            final int newCoord = - (svgSize - getWidth()) / 2;
+
+            // While zooming (size changes every frame) -> painted directly; repaints at a settled size -> cached
+            if (svgSize != paintedSize) {
+                paintedSize = svgSize;
+                svgIcon.paintIcon(this, g, newCoord, newCoord);
+            } else {
+                g.drawImage(StimulusCache.getRaster(trialURI, svgSize, getWidth(), getHeight(),
+                        g2d -> svgIcon.paintIcon(this, g2d, newCoord, newCoord)), 0, 0, null);
+            }
         }
     }
 
@@ -436,7 +449,7 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
         public void actionPerformed(ActionEvent e) {
             // Pressed outside
             if (!hasFocus) {
-                Logex.get().logError(ErrorEvent.SPACE_ZOOM, ErrorEvent.OUTSIDE_ZVP);
+                session.getLogex().logError(ErrorEvent.Code.SPACE_ZOOM, ErrorEvent.OUTSIDE_ZVP);
             } else {
                 if (checkHit()) {
                     endTrialAction.actionPerformed(e);
@@ -474,7 +487,7 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
     public void mouseWheelMoved(MouseWheelEvent e) {
         // If not in focus, log and exit
         if (!hasFocus) {
-            Logex.get().logError(ErrorEvent.SCROLL, ErrorEvent.OUTSIDE_ZVP);
+            session.getLogex().logError(ErrorEvent.Code.SCROLL, ErrorEvent.OUTSIDE_ZVP);
             return;
         }
 
@@ -490,16 +503,16 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
         repaint();
 
         //-- Log
-        Logex.get().logEvent(TrialEvent.ZOOM);
+        session.getLogex().logEvent(TrialEvent.Code.ZOOM, -rot); // Notches
         // Wrong direction in first zoom
         if ((rot > 0 && trial.task.equals(Task.ZOOM_IN)) || (rot < 0 && trial.task.equals(Task.ZOOM_OUT))) {
-            Logex.get().logError(ErrorEvent.FIRST_ZOOM, ErrorEvent.WRONG_DIRECTION);
+            session.getLogex().logError(ErrorEvent.Code.FIRST_ZOOM, ErrorEvent.WRONG_DIRECTION);
         }
     }
 
     @Override
     public void mouseClicked(MouseEvent e) {
-        Logex.get().logError(ErrorEvent.CLICK, ErrorEvent.INSIDE_ZVP);
+        session.getLogex().logError(ErrorEvent.Code.CLICK, ErrorEvent.INSIDE_ZVP);
     }
 
     @Override
@@ -518,7 +531,7 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
         setBorder(BORDERS.FOCUSED_BORDER);
 
         // Log
-        Logex.get().logEvent(TrialEvent.VIEWPORT_ENTER);
+        session.getLogex().logEvent(TrialEvent.Code.VIEWPORT_ENTER);
     }
 
     @Override
@@ -527,12 +540,12 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
         setBorder(BORDERS.FOCUS_LOST_BORDER);
 
         // Log
-        Logex.get().logEvent(TrialEvent.VIEWPORT_EXIT);
+        session.getLogex().logEvent(TrialEvent.Code.VIEWPORT_EXIT);
     }
 
     @Override
     public void mooseClicked(Memo mem) {
-        Logex.get().logError(ErrorEvent.CLICK, ErrorEvent.INSIDE_ZVP);
+        session.getLogex().logError(ErrorEvent.Code.CLICK, ErrorEvent.INSIDE_ZVP);
         borderBlinker.start();
     }
 
@@ -546,7 +559,7 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
 
         // If not in focus, log and exit
         if (!hasFocus) {
-            Logex.get().logError(ErrorEvent.SCROLL, ErrorEvent.OUTSIDE_ZVP);
+            session.getLogex().logError(ErrorEvent.Code.SCROLL, ErrorEvent.OUTSIDE_ZVP);
             return;
         }
 
@@ -556,8 +569,6 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
             setBorder(BORDERS.FOCUSED_BORDER);
         }
 
-        Logex.get().logEvent(TrialEvent.ZOOM);
-
         // Repaint the component to reflect the zooming
         final float dYmm = mem.getV1Float();
         final float zoomAmp = dYmm * ExperimentFrame.MOOSE_MM_TO_NOTCH;
@@ -566,10 +577,10 @@ public class ZoomViewport extends JPanel implements MouseListener, MouseWheelLis
         repaint();
 
         //-- Log
-        Logex.get().logEvent(TrialEvent.ZOOM);
+        session.getLogex().logEvent(TrialEvent.Code.ZOOM, -zoomAmp); // Notches
         // Wrong direction in first zoom
         if ((zoomAmp > 0 && trial.task.equals(Task.ZOOM_IN)) || (zoomAmp < 0 && trial.task.equals(Task.ZOOM_OUT))) {
-            Logex.get().logError(ErrorEvent.FIRST_ZOOM, ErrorEvent.WRONG_DIRECTION);
+            session.getLogex().logError(ErrorEvent.Code.FIRST_ZOOM, ErrorEvent.WRONG_DIRECTION);
         }
     }
 